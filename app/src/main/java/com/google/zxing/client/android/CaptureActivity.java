@@ -53,6 +53,7 @@ import com.google.zxing.DecodeHintType;
 import com.google.zxing.Result;
 import com.google.zxing.ResultMetadataType;
 import com.google.zxing.ResultPoint;
+import com.google.zxing.client.android.Utils.BitmapPool;
 import com.google.zxing.client.android.camera.CameraManager;
 import com.google.zxing.client.android.clipboard.ClipboardInterface;
 import com.google.zxing.client.android.history.HistoryActivity;
@@ -111,9 +112,9 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     private Map<DecodeHintType, ?> decodeHints; //解码的其他设置
     private String characterSet;
     private HistoryManager historyManager;
+    private Bitmap resultBitmap;//结果页正在显示的缩略图
     private InactivityTimer inactivityTimer;
     private BeepManager beepManager;
-    private AmbientLightManager ambientLightManager;
 
     ViewfinderView getViewfinderView() {
         return viewfinderView;
@@ -138,7 +139,6 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         hasSurface = false;
         inactivityTimer = new InactivityTimer(this);//当使用的是电池供电情况下一段时间不活动杀死当前界面
         beepManager = new BeepManager(this);//主要用于扫描成功后的蜂鸣和震动
-        ambientLightManager = new AmbientLightManager(this);//保持屏幕唤醒状态
 
         PreferenceManager.setDefaultValues(this, R.xml.preferences, false);//读取的设置选项
     }
@@ -180,7 +180,6 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 
 
         beepManager.updatePrefs();
-        ambientLightManager.start(cameraManager);
 
         inactivityTimer.onResume();
 
@@ -273,9 +272,10 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
             handler = null;
         }
         inactivityTimer.onPause();
-        ambientLightManager.stop();
         beepManager.close();
         cameraManager.closeDriver();
+        // 后台排队的扫描记录在这里写完,不会丢,历史界面也能看到
+        historyManager.flush();
         //historyManager = null; // Keep for onActivityResult
         if (!hasSurface) {
             SurfaceView surfaceView = (SurfaceView) findViewById(R.id.preview_view);
@@ -420,10 +420,12 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent intent) {
         if (resultCode == RESULT_OK && requestCode == HISTORY_REQUEST_CODE && historyManager != null) {
-            int itemNumber = intent.getIntExtra(Intents.History.ITEM_NUMBER, -1);
-            if (itemNumber >= 0) {
-                HistoryItem historyItem = historyManager.buildHistoryItem(itemNumber);
-                decodeOrStoreSavedBitmap(null, historyItem.getResult());
+            long itemId = intent.getLongExtra(Intents.History.ITEM_ID, -1L);
+            if (itemId >= 0L) {
+                HistoryItem historyItem = historyManager.buildHistoryItem(itemId);
+                if (historyItem != null) {
+                    decodeOrStoreSavedBitmap(null, historyItem.getResult());
+                }
             }
         }
     }
@@ -500,6 +502,8 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 
 //                    复制到剪切板
                     maybeSetClipboard(resultHandler);
+                    // The thumbnail isn't shown in bulk mode
+                    BitmapPool.put(barcode);
 
                     // Wait a moment or else it will scan the same barcode continuously about 3 times
                     restartPreviewAfterDelay(BULK_MODE_SCAN_DELAY_MS);//延迟一秒钟重新的扫描
@@ -569,6 +573,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 
 //        自动打开网页情况下
         if (resultHandler.getDefaultButtonID() != null && prefs.getBoolean(PreferencesActivity.KEY_AUTO_OPEN_WEB, false)) {
+            BitmapPool.put(barcode);
             resultHandler.handleButtonPress(resultHandler.getDefaultButtonID());
             return;
         }
@@ -585,6 +590,8 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         } else {
             barcodeImageView.setImageBitmap(barcode);
         }
+        releaseResultBitmap();
+        resultBitmap = barcode;
 
         TextView formatTextView = (TextView) findViewById(R.id.format_text_view);
         formatTextView.setText(rawResult.getBarcodeFormat().toString());
@@ -802,6 +809,18 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         statusView.setVisibility(View.VISIBLE);
         viewfinderView.setVisibility(View.VISIBLE);
         lastResult = null;
+        if (resultBitmap != null) {
+            ((ImageView) findViewById(R.id.barcode_image_view)).setImageBitmap(null);
+            releaseResultBitmap();
+        }
+    }
+
+    /**
+     * 结果页的缩略图不再显示了,还给 Bitmap 池
+     */
+    private void releaseResultBitmap() {
+        BitmapPool.put(resultBitmap);
+        resultBitmap = null;
     }
 
     public void drawViewfinder() {
@@ -22,7 +22,6 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -33,6 +32,7 @@ import android.util.Log;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.DecodeHintType;
 import com.google.zxing.Result;
+import com.google.zxing.client.android.Utils.BitmapPool;
 import com.google.zxing.client.android.camera.CameraManager;
 
 import java.util.Collection;
@@ -68,21 +68,23 @@ public final class CaptureActivityHandler extends Handler {
 
         this.activity = activity;
 
-//        处理解码任务的,单起线程去扫描二维码
-        decodeThread = new DecodeThread(
-                activity, decodeFormats, baseHints, characterSet,
-                new ViewfinderResultPointCallback(activity.getViewfinderView()),cameraManager.getCamera());
-        decodeThread.start();
-
-        state = State.SUCCESS;
-
         // Start ourselves capturing previews and decoding.开启拍摄预览和解码
         this.cameraManager = cameraManager;
 
         //开启相机预览
         // 在startPreview方法执行之后，SurfaceView才真的开始显示照相机内容
+        // Preview starts first so that the decode thread can be given its frame queue
         cameraManager.startPreview();
 
+//        处理解码任务的,单起线程去扫描二维码
+        decodeThread = new DecodeThread(
+                activity, decodeFormats, baseHints, characterSet,
+                new ViewfinderResultPointCallback(activity.getViewfinderView()), cameraManager.getCamera(),
+                cameraManager.getFrameQueue());
+        decodeThread.start();
+
+        state = State.SUCCESS;
+
         //重开始预览和解码,重要方法.这里边的逻辑主要是为了拿到回调的帧.和视频的预览是没有关系的
         restartPreviewAndDecode();
     }
@@ -109,23 +111,14 @@ public final class CaptureActivityHandler extends Handler {
                 if (bundle != null) {
                     byte[] compressedBitmap = bundle.getByteArray(DecodeThread.BARCODE_BITMAP);
                     if (compressedBitmap != null) {
-                        barcode = BitmapFactory.decodeByteArray(compressedBitmap,
-                                0, compressedBitmap.length, null);
-                        // Mutable copy:拷贝副本
-                        barcode = barcode.copy(Bitmap.Config.ARGB_8888, true);
+                        // Decoded straight into a mutable bitmap from the pool, no copy needed
+                        barcode = BitmapPool.decodeMutable(compressedBitmap);
                     }
                     scaleFactor = bundle.getFloat(DecodeThread.BARCODE_SCALED_FACTOR);
                 }
 
                 activity.handleDecode((Result) message.obj, barcode, scaleFactor);
 
-                break;
-            case R.id.decode_failed:
-                Log.i(TAG, "handleMessage: decode_failed--------");
-                // We're decoding as fast as possible, so when one decode fails, start another.
-                state = State.PREVIEW;
-                //这里注意每次只是回调一帧数据,需要重复的设置才行.
-                cameraManager.requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
                 break;
             case R.id.return_scan_result:
                 Log.i(TAG, "handleMessage: return_scan_result");
@@ -172,8 +165,7 @@ public final class CaptureActivityHandler extends Handler {
     public void quitSynchronously() {
         state = State.DONE;
         cameraManager.stopPreview();
-        Message quit = Message.obtain(decodeThread.getHandler(), R.id.quit);
-        quit.sendToTarget();
+        decodeThread.quit();
         try {
             // Wait at most half a second; should be enough time, and onPause() will timeout quickly
             decodeThread.join(500L);
@@ -183,14 +175,14 @@ public final class CaptureActivityHandler extends Handler {
 
         // Be absolutely sure we don't send any queued up messages
         removeMessages(R.id.decode_succeeded);
-        removeMessages(R.id.decode_failed);
     }
 
     private void restartPreviewAndDecode() {
 
         if (state == State.SUCCESS) {
             state = State.PREVIEW;// State.SUCCESS是开始的时候认为的设定,此处开始预览了
-            cameraManager.requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
+            // Failed decodes go straight on to the next frame on the decode thread; only a success pauses it
+            cameraManager.requestPreviewFrames();
 
             //重新绘制蓝色边缘矩形、扫描线等
             activity.drawViewfinder();
@@ -19,8 +19,10 @@ package com.google.zxing.client.android;
 import android.content.Intent;
 import android.net.Uri;
 import com.google.zxing.BarcodeFormat;
+import com.google.zxing.client.android.camera.FramingShape;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
@@ -67,6 +69,34 @@ final class DecodeFormatManager {
 
   private DecodeFormatManager() {}
 
+  /**
+   * @return {@link FramingShape#STRIP} if only one dimensional formats are decoded,
+   *  {@link FramingShape#SQUARE} if only square two dimensional ones are, and
+   *  {@link FramingShape#DEFAULT} otherwise
+   */
+  static FramingShape framingShapeFor(Collection<BarcodeFormat> formats) {
+    if (formats == null || formats.isEmpty()) {
+      return FramingShape.DEFAULT;
+    }
+    boolean anyOneD = false;
+    boolean anyOther = false;
+    for (BarcodeFormat format : formats) {
+      if (ONE_D_FORMATS.contains(format)) {
+        anyOneD = true;
+      } else {
+        anyOther = true;
+      }
+    }
+    if (!anyOther) {
+      return FramingShape.STRIP;
+    }
+    // PDF417 is wide rather than square
+    if (!anyOneD && !formats.contains(BarcodeFormat.PDF_417)) {
+      return FramingShape.SQUARE;
+    }
+    return FramingShape.DEFAULT;
+  }
+
   static Set<BarcodeFormat> parseDecodeFormats(Intent intent) {
     Iterable<String> scanFormats = null;
     CharSequence scanFormatsString = intent.getStringExtra(Intents.Scan.FORMATS);
@@ -16,12 +16,15 @@
 
 package com.google.zxing.client.android;
 
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.PointF;
+import android.graphics.Rect;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.Looper;
 import android.os.Message;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.google.zxing.BinaryBitmap;
@@ -30,8 +33,11 @@ import com.google.zxing.MultiFormatReader;
 import com.google.zxing.PlanarYUVLuminanceSource;
 import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
+import com.google.zxing.client.android.Utils.BitmapPool;
+import com.google.zxing.client.android.camera.CameraManager;
+import com.google.zxing.client.android.camera.FrameMetrics;
+import com.google.zxing.client.android.camera.FrameQueue;
 import com.google.zxing.client.android.camera.open.OpenCamera;
-import com.google.zxing.common.HybridBinarizer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -40,37 +46,44 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Map;
 
-final class DecodeHandler extends Handler {
+/**
+ * Decodes the frames {@link DecodeThread} takes from the {@link FrameQueue}. Only the decode thread
+ * uses this object.
+ */
+final class DecodeHandler {
 
     private static final String TAG = DecodeHandler.class.getSimpleName();
 
+    /** A frame with at least this many result points that still fails to decode is a near miss. */
+    private static final int NEAR_MISS_RESULT_POINTS = 3;
+
     private final CaptureActivity activity;
     private final MultiFormatReader multiFormatReader;
-    private boolean running = true;
+    private final ReusableBinarizer.Scratch binarizerScratch = new ReusableBinarizer.Scratch();
     private OpenCamera mCamera;
+    private final FrameQueue frameQueue;
+    private final ViewfinderResultPointCallback resultPointCallback;
+    // 低分辨率全画面和扫描框交替解码,全画面里发现的目标把下一帧的解码区域移过去
+    private final FrameDownsampler frameDownsampler;
+    private boolean lastPassLowResolution;
+    private boolean regionRedirected;
+    private final Rect redirectedRegion = new Rect();
+    private final PointF candidateCenter = new PointF();
+    private final FramePrefilter framePrefilter = new FramePrefilter();
 
-    DecodeHandler(CaptureActivity activity, Map<DecodeHintType, Object> hints, OpenCamera camera) {
+    DecodeHandler(CaptureActivity activity, Map<DecodeHintType, Object> hints, OpenCamera camera,
+                  FrameQueue frameQueue) {
         mCamera = camera;
+        this.frameQueue = frameQueue;
         multiFormatReader = new MultiFormatReader();
         multiFormatReader.setHints(hints);
         this.activity = activity;
-    }
-
-    @Override
-    public void handleMessage(Message message) {
-        if (message == null || !running) {
-            return;
-        }
-        Log.i(TAG, "handleMessage: 发送消息处");//由 onPreviewFrame 回调回来的.
-        switch (message.what) {
-            case R.id.decode:
-                decode((byte[]) message.obj, message.arg1, message.arg2);//后边参数是照片的宽高,实测是屏幕的宽高
-                break;
-            case R.id.quit:
-                running = false;
-                Looper.myLooper().quit();
-                break;
-        }
+        Object callback = hints.get(DecodeHintType.NEED_RESULT_POINT_CALLBACK);
+        resultPointCallback =
+                callback instanceof ViewfinderResultPointCallback ? (ViewfinderResultPointCallback) callback : null;
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(activity);
+        frameDownsampler = resultPointCallback != null && prefs.getBoolean(PreferencesActivity.KEY_DUAL_ROI, false) ?
+                new FrameDownsampler() : null;
     }
 
     /**
@@ -85,7 +98,7 @@ final class DecodeHandler extends Handler {
      */
     ByteArrayOutputStream baos;
 
-    private void decode(byte[] data, int width, int height) {
+    void decode(byte[] data, int width, int height) {
 
         /*--------------------------------------------------------------------*/
 //        拿到每一帧的图片进行保存的逻辑
@@ -110,9 +123,34 @@ final class DecodeHandler extends Handler {
         /*-----------------------猜测:底层算法验证是否包含了二维码的rawResult-----------------------------------*/
         long start = System.currentTimeMillis();
         Result rawResult = null;
-        PlanarYUVLuminanceSource source = activity.getCameraManager().buildLuminanceSource(data, width, height);
+        CameraManager cameraManager = activity.getCameraManager();
+        Rect rect = cameraManager.getFramingRectInPreview();
+        PlanarYUVLuminanceSource source = null;
+        boolean lowResolution = false;
+        if (rect != null) {
+            lowResolution = frameDownsampler != null && !lastPassLowResolution;
+            lastPassLowResolution = lowResolution;
+            if (lowResolution) {
+                source = frameDownsampler.build(data, width, height);
+                resultPointCallback.startFrame(frameDownsampler.getFactor(), -rect.left, -rect.top);
+            } else if (framePrefilter.rejects(data, width, regionRedirected ? redirectedRegion : rect)) {
+                // 白墙、天空之类不可能有条码的帧,不做二值化和解码
+                if (resultPointCallback != null) {
+                    resultPointCallback.startFrame();
+                }
+            } else if (regionRedirected) {
+                source = cameraManager.buildLuminanceSource(data, width, height, redirectedRegion);
+                resultPointCallback.startFrame(1.0f, redirectedRegion.left - rect.left,
+                        redirectedRegion.top - rect.top);
+            } else {
+                source = cameraManager.buildLuminanceSource(data, width, height, rect);
+                if (resultPointCallback != null) {
+                    resultPointCallback.startFrame();
+                }
+            }
+        }
         if (source != null) {
-            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
+            BinaryBitmap bitmap = new BinaryBitmap(new ReusableBinarizer(source, binarizerScratch));
             try {
                 rawResult = multiFormatReader.decodeWithState(bitmap);
             } catch (ReaderException re) {
@@ -120,14 +158,38 @@ final class DecodeHandler extends Handler {
             } finally {
                 multiFormatReader.reset();
             }
+            if (!lowResolution) {
+                framePrefilter.onDecodeResult(rawResult != null);
+            }
+        }
+        if (rect != null) {
+            int resultPointsInFrame = 0;
+            float resultPointSpread = 0.0f;
+            if (resultPointCallback != null) {
+                resultPointsInFrame = resultPointCallback.getPointsInFrame();
+                resultPointSpread = resultPointCallback.getPointSpread(rect.width(), rect.height());
+                if (frameDownsampler != null) {
+                    redirectRegion(rect, width, height, rawResult != null, lowResolution);
+                }
+                resultPointCallback.publishFrame();
+            }
+            // 目标太小就放大,解码成功后恢复
+            cameraManager.reportResultPointSpread(resultPointSpread, rawResult != null);
+
+            // 把这一帧的清晰度告诉对焦,模糊了或者差一点就解出来的时候重新对焦;亮度用来调整曝光和闪光灯
+            cameraManager.reportFrameQuality(FrameMetrics.sharpness(data, width, rect),
+                    rawResult == null && resultPointsInFrame >= NEAR_MISS_RESULT_POINTS);
+            cameraManager.reportFrameLuminance(data, width, rect);
         }
 
-        /*--------------直接消息发送-------------------*/
-        Handler handler = activity.getHandler();//又发送到CaptureActivity的CaptureActivityHandler中
+        /*--------------成功才发消息,失败的话解码线程直接取下一帧-------------------*/
         if (rawResult != null) {
             // Don't log the barcode contents for security.
             long end = System.currentTimeMillis();
             Log.d(TAG, "Found barcode in " + (end - start) + " ms");
+            // No more frames until the result has been handled and CaptureActivityHandler asks again
+            frameQueue.pause();
+            Handler handler = activity.getHandler();//又发送到CaptureActivity的CaptureActivityHandler中
             if (handler != null) {
 
                 Message message = Message.obtain(handler, R.id.decode_succeeded, rawResult);
@@ -136,12 +198,31 @@ final class DecodeHandler extends Handler {
                 message.setData(bundle);
                 message.sendToTarget();
             }
-        } else {
-            if (handler != null) {
-                Message message = Message.obtain(handler, R.id.decode_failed);   //没有得到想要的图片继续进行获取预览图
-                message.sendToTarget();
+        }
+    }
+
+    /**
+     * Points found anywhere in a low resolution pass, or again in a redirected full resolution pass, move
+     * the next full resolution pass to a framing rect sized region centered on them. Otherwise the next
+     * full resolution pass goes back to the framing rect.
+     */
+    private void redirectRegion(Rect rect, int width, int height, boolean decoded, boolean lowResolution) {
+        if (decoded || !resultPointCallback.getPointCenter(candidateCenter)) {
+            if (!lowResolution) {
+                regionRedirected = false;
             }
+            return;
+        }
+        if (!lowResolution && !regionRedirected) {
+            // Points inside the framing rect need no redirection
+            return;
         }
+        int left = rect.left + (int) candidateCenter.x - rect.width() / 2;
+        int top = rect.top + (int) candidateCenter.y - rect.height() / 2;
+        left = Math.max(0, Math.min(width - rect.width(), left));
+        top = Math.max(0, Math.min(height - rect.height(), top));
+        redirectedRegion.set(left, top, left + rect.width(), top + rect.height());
+        regionRedirected = !redirectedRegion.equals(rect);
     }
 
     /*--------------在bundle中设置图片缩率图的二维码信息------------------------*/
@@ -152,9 +233,11 @@ final class DecodeHandler extends Handler {
         int width = source.getThumbnailWidth();
         int height = source.getThumbnailHeight();
 
-        Bitmap bitmap = Bitmap.createBitmap(pixels, 0, width, width, height, Bitmap.Config.ARGB_8888);
+        Bitmap bitmap = BitmapPool.get(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         bitmap.compress(Bitmap.CompressFormat.JPEG, 50, out);
+        BitmapPool.put(bitmap);
 
         bundle.putByteArray(DecodeThread.BARCODE_BITMAP, out.toByteArray());
         bundle.putFloat(DecodeThread.BARCODE_SCALED_FACTOR, (float) width / source.getWidth());
@@ -17,21 +17,19 @@
 package com.google.zxing.client.android;
 
 import android.content.SharedPreferences;
-import android.os.Handler;
-import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.DecodeHintType;
 import com.google.zxing.ResultPointCallback;
+import com.google.zxing.client.android.camera.FrameQueue;
 import com.google.zxing.client.android.camera.open.OpenCamera;
 
 import java.util.Collection;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
 
 /**
  * This thread does all the heavy lifting of decoding the images.
@@ -45,21 +43,25 @@ final class DecodeThread extends Thread {
     public static final String BARCODE_BITMAP = "barcode_bitmap";
     public static final String BARCODE_SCALED_FACTOR = "barcode_scaled_factor";
 
+    /** How long to wait for a frame before checking whether to quit. */
+    private static final long FRAME_WAIT_MS = 250L;
+
     private final CaptureActivity activity;
     private OpenCamera mCamera;
     private final Map<DecodeHintType, Object> hints;
-    private Handler handler;
-    private final CountDownLatch handlerInitLatch;
+    private final FrameQueue frameQueue;
+    private volatile boolean running = true;
 
     DecodeThread(CaptureActivity activity,
                  Collection<BarcodeFormat> decodeFormats,
                  Map<DecodeHintType, ?> baseHints,
                  String characterSet,
-                 ResultPointCallback resultPointCallback, OpenCamera camera) {
+                 ResultPointCallback resultPointCallback, OpenCamera camera,
+                 FrameQueue frameQueue) {
 
         this.activity = activity;
         mCamera = camera;
-        handlerInitLatch = new CountDownLatch(1);//同步工具类,管理线程先后执行的
+        this.frameQueue = frameQueue;
 
         hints = new EnumMap<>(DecodeHintType.class);
         if (baseHints != null) {
@@ -91,6 +93,8 @@ final class DecodeThread extends Thread {
             }
         }
         hints.put(DecodeHintType.POSSIBLE_FORMATS, decodeFormats);
+        // 扫描框的形状跟着格式走,只扫一维码时用细长条,只扫二维码时用正方形
+        activity.getCameraManager().setFramingShape(DecodeFormatManager.framingShapeFor(decodeFormats));
 
         if (characterSet != null) {
             hints.put(DecodeHintType.CHARACTER_SET, characterSet);
@@ -99,21 +103,32 @@ final class DecodeThread extends Thread {
         Log.i("DecodeThread", "Hints: " + hints);
     }
 
-    Handler getHandler() {
-        try {
-            handlerInitLatch.await();
-        } catch (InterruptedException ie) {
-            // continue?
-        }
-        return handler;
+    /**
+     * Asks the thread to finish after the frame it may be decoding.
+     */
+    void quit() {
+        running = false;
+        frameQueue.wakeUp();
     }
 
+    /**
+     * 解码线程直接从帧队列取帧,不经过 Looper 和主线程
+     */
     @Override
     public void run() {
-        Looper.prepare();
-        handler = new DecodeHandler(activity, hints, mCamera);
-        handlerInitLatch.countDown();
-        Looper.loop();
+        DecodeHandler decodeHandler = new DecodeHandler(activity, hints, mCamera, frameQueue);
+        while (running) {
+            FrameQueue.Frame frame = frameQueue.take(FRAME_WAIT_MS);
+            if (frame != null) {
+                try {
+                    if (running) {
+                        decodeHandler.decode(frame.getData(), frame.getWidth(), frame.getHeight());
+                    }
+                } finally {
+                    frameQueue.release(frame);
+                }
+            }
+        }
     }
 
 }
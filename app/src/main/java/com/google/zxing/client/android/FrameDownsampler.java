@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android;
+
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+/**
+ * Builds a low resolution copy of the whole luminance plane of a preview frame, by averaging square
+ * blocks of pixels, so that codes outside the framing rect can be found cheaply. The buffer is reused
+ * from frame to frame; only the decode thread uses this object.
+ * <p>
+ * 把整个预览帧缩小成低分辨率的亮度图,用来便宜地找扫描框外的条码.
+ */
+final class FrameDownsampler {
+
+    /** The low resolution frame is at most this wide. */
+    private static final int MAX_WIDTH = 640;
+
+    private byte[] buffer;
+    private int factor;
+
+    /**
+     * @return the whole frame, {@link #getFactor()} times smaller in each dimension
+     */
+    PlanarYUVLuminanceSource build(byte[] data, int width, int height) {
+        int theFactor = Math.max(2, (width + MAX_WIDTH - 1) / MAX_WIDTH);
+        int scaledWidth = width / theFactor;
+        int scaledHeight = height / theFactor;
+        int size = scaledWidth * scaledHeight;
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[size];
+        }
+        factor = theFactor;
+
+        int area = theFactor * theFactor;
+        int outOffset = 0;
+        for (int y = 0; y < scaledHeight; y++) {
+            int rowOffset = y * theFactor * width;
+            for (int x = 0; x < scaledWidth; x++) {
+                int blockOffset = rowOffset + x * theFactor;
+                int sum = 0;
+                for (int dy = 0; dy < theFactor; dy++) {
+                    int offset = blockOffset + dy * width;
+                    for (int dx = 0; dx < theFactor; dx++) {
+                        sum += data[offset + dx] & 0xff;
+                    }
+                }
+                buffer[outOffset++] = (byte) (sum / area);
+            }
+        }
+        return new PlanarYUVLuminanceSource(buffer, scaledWidth, scaledHeight, 0, 0,
+                scaledWidth, scaledHeight, false);
+    }
+
+    /**
+     * @return how many preview pixels one pixel of the last built frame covers, in each dimension
+     */
+    int getFactor() {
+        return factor;
+    }
+
+}
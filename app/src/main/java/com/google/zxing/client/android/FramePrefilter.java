@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android;
+
+import android.graphics.Rect;
+import android.util.Log;
+
+import com.google.zxing.client.android.camera.FrameMetrics;
+
+/**
+ * Decides from a sparse sample of the region about to be decoded whether it can hold a barcode at all,
+ * so that frames of a blank wall, the sky or a hand skip binarization and the readers. A frame is
+ * rejected when its luminance range is too narrow, or when it has hardly any edges and its histogram
+ * is not bimodal either. Every so often a rejected frame is decoded anyway, and how many of those still
+ * decode is logged, to keep an eye on the thresholds. Only the decode thread uses this object.
+ * <p>
+ * 解码前的快速预检:亮度范围太窄,或者几乎没有边缘且直方图不是双峰的帧直接跳过.
+ */
+final class FramePrefilter {
+
+    private static final String TAG = FramePrefilter.class.getSimpleName();
+
+    // 阈值可按实际扫码效果调整,宁可放过也不要误杀
+    /** Fraction of samples ignored at each end of the histogram when measuring the range, as noise. */
+    private static final float RANGE_TAIL_FRACTION = 0.01f;
+    /** Narrower than this, no block would have the dynamic range the binarizer needs. */
+    private static final int MIN_LUMINANCE_RANGE = 32;
+    /** Neighbouring pixels differing by at least this much make an edge. */
+    private static final int EDGE_DIFFERENCE = 24;
+    private static final float MIN_EDGE_DENSITY = 0.01f;
+    /** Otsu's between-class share of the variance; a single gaussian peak gives about 0.64. */
+    private static final float MIN_BIMODALITY = 0.8f;
+    /** One in this many rejected frames is decoded anyway, to count how many would have decoded. */
+    private static final int AUDIT_INTERVAL = 20;
+    private static final int LOG_INTERVAL = 300;
+
+    private final int[] histogram = new int[FrameMetrics.LUMINANCE_BUCKETS];
+    private boolean auditing;
+
+    private int framesChecked;
+    private int framesRejected;
+    private int framesAudited;
+    private int auditsDecoded;
+    private int framesPassed;
+    private int passesDecoded;
+
+    /**
+     * @param data      YUV preview frame
+     * @param dataWidth width of the preview frame
+     * @param rect      region about to be decoded, in preview coordinates
+     * @return {@code true} if the frame should not be decoded; otherwise pass the outcome of decoding it
+     * to {@link #onDecodeResult(boolean)}
+     */
+    boolean rejects(byte[] data, int dataWidth, Rect rect) {
+        framesChecked++;
+        if (framesChecked % LOG_INTERVAL == 0) {
+            logCounts();
+        }
+        auditing = false;
+        if (!noBarcodePossible(data, dataWidth, rect)) {
+            framesPassed++;
+            return false;
+        }
+        framesRejected++;
+        if (framesRejected % AUDIT_INTERVAL == 0) {
+            auditing = true;
+            framesAudited++;
+            return false;
+        }
+        return true;
+    }
+
+    void onDecodeResult(boolean decoded) {
+        if (!decoded) {
+            return;
+        }
+        if (auditing) {
+            auditsDecoded++;
+            Log.w(TAG, "Decoded a frame the prefilter would have skipped");
+        } else {
+            passesDecoded++;
+        }
+        logCounts();
+    }
+
+    private void logCounts() {
+        Log.i(TAG, "Frames checked " + framesChecked + ", passed " + framesPassed + " (decoded " + passesDecoded +
+                "), rejected " + framesRejected + " (audited " + framesAudited + ", decoded " + auditsDecoded + ')');
+    }
+
+    private boolean noBarcodePossible(byte[] data, int dataWidth, Rect rect) {
+        int count = FrameMetrics.luminanceHistogram(data, dataWidth, rect, histogram);
+        if (count == 0) {
+            return false;
+        }
+        if (luminanceRange(count) < MIN_LUMINANCE_RANGE) {
+            return true;
+        }
+        return FrameMetrics.edgeDensity(data, dataWidth, rect, EDGE_DIFFERENCE) < MIN_EDGE_DENSITY &&
+                bimodality(count) < MIN_BIMODALITY;
+    }
+
+    /**
+     * @return distance between the darkest and the brightest bucket, ignoring a small fraction of samples at
+     * each end
+     */
+    private int luminanceRange(int count) {
+        int tail = (int) (count * RANGE_TAIL_FRACTION);
+        int low = 0;
+        int seen = histogram[low];
+        while (seen <= tail && low < histogram.length - 1) {
+            seen += histogram[++low];
+        }
+        int high = histogram.length - 1;
+        seen = histogram[high];
+        while (seen <= tail && high > 0) {
+            seen += histogram[--high];
+        }
+        return Math.max(0, high - low) * (256 / FrameMetrics.LUMINANCE_BUCKETS);
+    }
+
+    /**
+     * Otsu's criterion: the largest share of the variance explained by splitting the histogram in two.
+     * Close to 1 for two well separated peaks.
+     */
+    private float bimodality(int count) {
+        double mean = 0.0;
+        for (int i = 0; i < histogram.length; i++) {
+            mean += (double) i * histogram[i];
+        }
+        mean /= count;
+        double variance = 0.0;
+        for (int i = 0; i < histogram.length; i++) {
+            double d = i - mean;
+            variance += d * d * histogram[i];
+        }
+        variance /= count;
+        if (variance <= 0.0) {
+            return 0.0f;
+        }
+
+        double best = 0.0;
+        int lowCount = 0;
+        double lowSum = 0.0;
+        for (int t = 0; t < histogram.length - 1; t++) {
+            lowCount += histogram[t];
+            lowSum += (double) t * histogram[t];
+            int highCount = count - lowCount;
+            if (lowCount == 0 || highCount == 0) {
+                continue;
+            }
+            double lowWeight = (double) lowCount / count;
+            double lowMean = lowSum / lowCount;
+            double highMean = (mean * count - lowSum) / highCount;
+            double diff = highMean - lowMean;
+            double between = lowWeight * (1.0 - lowWeight) * diff * diff;
+            if (between > best) {
+                best = between;
+            }
+        }
+        return (float) (best / variance);
+    }
+
+}
@@ -184,7 +184,10 @@ public final class Intents {
    */
   public static final class History {
 
-    public static final String ITEM_NUMBER = "ITEM_NUMBER";
+    /**
+     * Row ID, as a long, of the history item picked from the history screen.
+     */
+    public static final String ITEM_ID = "ITEM_ID";
 
     private History() {
     }
@@ -45,9 +45,14 @@ public final class PreferencesActivity extends Activity {
   public static final String KEY_BULK_MODE = "preferences_bulk_mode";//连续扫描
   public static final String KEY_REMEMBER_DUPLICATES = "preferences_remember_duplicates";
   public static final String KEY_ENABLE_HISTORY = "preferences_history";
+  public static final String KEY_HISTORY_MAX_ITEMS = "preferences_history_max_items";//历史记录最多条数,0 不限
+  public static final String KEY_HISTORY_MAX_AGE = "preferences_history_max_age";//历史记录保留天数
+  public static final String KEY_HISTORY_MAX_SIZE = "preferences_history_max_size";//历史数据库上限(MB),0 不限
+  public static final String KEY_HISTORY_EXPORT_GZIP = "preferences_history_export_gzip";//导出历史时压缩
   public static final String KEY_SUPPLEMENTAL = "preferences_supplemental";
   public static final String KEY_AUTO_FOCUS = "preferences_auto_focus";
   public static final String KEY_INVERT_SCAN = "preferences_invert_scan";  
+  public static final String KEY_DUAL_ROI = "preferences_dual_roi";//低分辨率全画面+扫描框交替解码
   public static final String KEY_SEARCH_COUNTRY = "preferences_search_country";
   public static final String KEY_DISABLE_AUTO_ORIENTATION = "preferences_orientation";
 
@@ -55,6 +60,7 @@ public final class PreferencesActivity extends Activity {
   public static final String KEY_DISABLE_EXPOSURE = "preferences_disable_exposure";
   public static final String KEY_DISABLE_METERING = "preferences_disable_metering";
   public static final String KEY_DISABLE_BARCODE_SCENE_MODE = "preferences_disable_barcode_scene_mode";
+  public static final String KEY_CALIBRATE_PREVIEW_SIZE = "preferences_calibrate_preview_size";
   public static final String KEY_AUTO_OPEN_WEB = "preferences_auto_open_web";//自动打开网页
 
   @Override
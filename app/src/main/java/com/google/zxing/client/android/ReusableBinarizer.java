@@ -0,0 +1,577 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Produces exactly the same output as {@link com.google.zxing.common.HybridBinarizer}, but keeps its
+ * luminance copy, block thresholds and {@link BitMatrix} in a {@link Scratch} that lives as long as the
+ * decode thread, so that binarizing a frame allocates nothing once the buffers have grown to size.
+ * <p>
+ * Large crops are cut into horizontal strips of block rows, which are measured and thresholded on all
+ * cores and written into the one shared matrix. Each strip reads the black points two block rows beyond
+ * its edges for the 5x5 averaging; only the cheap low contrast correction, which depends on the block
+ * above and to the left, runs on a single thread in between.
+ * <p>
+ * 和 HybridBinarizer 结果完全一致的二值化,缓冲区和 BitMatrix 跨帧复用,每帧不再产生垃圾;大图按条带多核并行.
+ */
+final class ReusableBinarizer extends Binarizer {
+
+    // Constants as in HybridBinarizer and GlobalHistogramBinarizer
+    private static final int BLOCK_SIZE_POWER = 3;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SIZE_POWER; // ...0100...00
+    private static final int BLOCK_SIZE_MASK = BLOCK_SIZE - 1;   // ...0011...11
+    private static final int MINIMUM_DIMENSION = BLOCK_SIZE * 5;
+    private static final int MIN_DYNAMIC_RANGE = 24;
+    private static final int LUMINANCE_BITS = 5;
+    private static final int LUMINANCE_SHIFT = 8 - LUMINANCE_BITS;
+    private static final int LUMINANCE_BUCKETS = 1 << LUMINANCE_BITS;
+
+    /** Below this many pixels, handing strips to other threads costs more than it saves. */
+    private static final int PARALLEL_MIN_PIXELS = 160 * 1000;
+    /**
+     * Strips are at least this many block rows high. Must be at least 2, so that the last block row, which
+     * overlaps the one before it when the height is not a multiple of the block size, is in the same strip.
+     */
+    private static final int MIN_STRIP_BLOCK_ROWS = 8;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    /** Marks a block in {@code blockMins} whose black point is already final. */
+    private static final int HIGH_CONTRAST = -1;
+
+    /**
+     * Buffers reused from frame to frame. Belongs to one thread; the matrix handed out for one frame is
+     * overwritten by the next frame of the same size.
+     */
+    static final class Scratch {
+
+        /** Matrices for the last few frame sizes, e.g. the crop and the downsampled whole frame. */
+        private static final int MAX_MATRICES = 4;
+
+        private byte[] luminances = new byte[0];
+        private byte[] row = new byte[0];
+        private int[] blackPoints = new int[0];
+        private int[] blockMins = new int[0];
+        private final int[] buckets = new int[LUMINANCE_BUCKETS];
+        private final BitMatrix[] matrices = new BitMatrix[MAX_MATRICES];
+        private int nextMatrix;
+
+        // 当前这一帧,供各条带读取
+        private byte[] frameLuminances;
+        private int frameWidth;
+        private int frameHeight;
+        private int subWidth;
+        private int subHeight;
+        private BitMatrix frameMatrix;
+
+        private final Strip[] strips = new Strip[Math.max(1, PARALLELISM)];
+        private final AtomicInteger pendingStrips = new AtomicInteger();
+        private volatile Thread waitingThread;
+
+        Scratch() {
+            for (int i = 0; i < strips.length; i++) {
+                strips[i] = new Strip(this);
+            }
+        }
+
+        BitMatrix matrix(int width, int height) {
+            for (BitMatrix matrix : matrices) {
+                if (matrix != null && matrix.getWidth() == width && matrix.getHeight() == height) {
+                    matrix.clear();
+                    return matrix;
+                }
+            }
+            BitMatrix matrix = new BitMatrix(width, height);
+            matrices[nextMatrix] = matrix;
+            nextMatrix = (nextMatrix + 1) % MAX_MATRICES;
+            return matrix;
+        }
+
+        byte[] luminances(int size) {
+            if (luminances.length < size) {
+                luminances = new byte[size];
+            }
+            return luminances;
+        }
+
+        byte[] row(int size) {
+            if (row.length < size) {
+                row = new byte[size];
+            }
+            return row;
+        }
+
+        int[] blackPoints(int size) {
+            if (blackPoints.length < size) {
+                blackPoints = new int[size];
+            }
+            return blackPoints;
+        }
+
+        int[] blockMins(int size) {
+            if (blockMins.length < size) {
+                blockMins = new int[size];
+            }
+            return blockMins;
+        }
+
+        int[] clearedBuckets() {
+            for (int i = 0; i < LUMINANCE_BUCKETS; i++) {
+                buckets[i] = 0;
+            }
+            return buckets;
+        }
+
+        /**
+         * Runs one phase over all strips, one on the calling thread and the rest on the worker pool, and
+         * returns once all of them are done.
+         */
+        void runStrips(int stripCount, boolean threshold) {
+            for (int i = 0; i < stripCount; i++) {
+                strips[i].set(subHeight * i / stripCount, subHeight * (i + 1) / stripCount, threshold);
+            }
+            if (stripCount == 1) {
+                strips[0].process();
+                return;
+            }
+            waitingThread = Thread.currentThread();
+            pendingStrips.set(stripCount - 1);
+            for (int i = 1; i < stripCount; i++) {
+                Workers.POOL.execute(strips[i]);
+            }
+            strips[0].process();
+            while (pendingStrips.get() > 0) {
+                LockSupport.park(this);
+            }
+            waitingThread = null;
+        }
+
+        void stripDone() {
+            if (pendingStrips.decrementAndGet() == 0) {
+                LockSupport.unpark(waitingThread);
+            }
+        }
+    }
+
+    /**
+     * A range of block rows of the current frame. Strips never share a row of the matrix, so they can set
+     * bits in it concurrently.
+     */
+    private static final class Strip implements Runnable {
+
+        private final Scratch scratch;
+        private int firstBlockRow;
+        private int endBlockRow;
+        private boolean threshold;
+
+        Strip(Scratch scratch) {
+            this.scratch = scratch;
+        }
+
+        void set(int firstBlockRow, int endBlockRow, boolean threshold) {
+            this.firstBlockRow = firstBlockRow;
+            this.endBlockRow = endBlockRow;
+            this.threshold = threshold;
+        }
+
+        void process() {
+            Scratch s = scratch;
+            if (threshold) {
+                calculateThresholdForBlock(s.frameLuminances, s.subWidth, s.subHeight, s.frameWidth, s.frameHeight,
+                        s.blackPoints, s.frameMatrix, firstBlockRow, endBlockRow);
+            } else {
+                measureBlocks(s.frameLuminances, s.subWidth, s.frameWidth, s.frameHeight,
+                        s.blackPoints, s.blockMins, firstBlockRow, endBlockRow);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                process();
+            } finally {
+                scratch.stripDone();
+            }
+        }
+    }
+
+    /**
+     * Worker threads shared by all scratches, one fewer than there are cores since the decode thread takes
+     * a strip itself. Created on first use only.
+     */
+    private static final class Workers {
+
+        static final Executor POOL;
+
+        static {
+            int threads = Math.max(1, PARALLELISM - 1);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BinarizerStrip-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // 扫码停下来后不占着线程
+            pool.allowCoreThreadTimeOut(true);
+            POOL = pool;
+        }
+    }
+
+    private final Scratch scratch;
+    private BitMatrix matrix;
+
+    ReusableBinarizer(LuminanceSource source, Scratch scratch) {
+        super(source);
+        this.scratch = scratch;
+    }
+
+    @Override
+    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
+        LuminanceSource source = getLuminanceSource();
+        int width = source.getWidth();
+        if (row == null || row.getSize() < width) {
+            row = new BitArray(width);
+        } else {
+            row.clear();
+        }
+
+        byte[] localLuminances = source.getRow(y, scratch.row(width));
+        int[] localBuckets = scratch.clearedBuckets();
+        for (int x = 0; x < width; x++) {
+            localBuckets[(localLuminances[x] & 0xff) >> LUMINANCE_SHIFT]++;
+        }
+        int blackPoint = estimateBlackPoint(localBuckets);
+
+        if (width < 3) {
+            // Special case for very small images
+            for (int x = 0; x < width; x++) {
+                if ((localLuminances[x] & 0xff) < blackPoint) {
+                    row.set(x);
+                }
+            }
+        } else {
+            int left = localLuminances[0] & 0xff;
+            int center = localLuminances[1] & 0xff;
+            for (int x = 1; x < width - 1; x++) {
+                int right = localLuminances[x + 1] & 0xff;
+                // A simple -1 4 -1 box filter with a weight of 2.
+                if (((center * 4) - left - right) / 2 < blackPoint) {
+                    row.set(x);
+                }
+                left = center;
+                center = right;
+            }
+        }
+        return row;
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        if (matrix != null) {
+            return matrix;
+        }
+        LuminanceSource source = getLuminanceSource();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width < MINIMUM_DIMENSION || height < MINIMUM_DIMENSION) {
+            // Too small for blocks; rare enough not to bother reusing anything
+            matrix = new GlobalHistogramBinarizer(source).getBlackMatrix();
+            return matrix;
+        }
+
+        // Copied row by row, since LuminanceSource.getMatrix() allocates a new array for a crop
+        byte[] luminances = scratch.luminances(width * height);
+        byte[] row = scratch.row(width);
+        for (int y = 0; y < height; y++) {
+            row = source.getRow(y, row);
+            System.arraycopy(row, 0, luminances, y * width, width);
+        }
+
+        int subWidth = width >> BLOCK_SIZE_POWER;
+        if ((width & BLOCK_SIZE_MASK) != 0) {
+            subWidth++;
+        }
+        int subHeight = height >> BLOCK_SIZE_POWER;
+        if ((height & BLOCK_SIZE_MASK) != 0) {
+            subHeight++;
+        }
+        int[] blackPoints = scratch.blackPoints(subWidth * subHeight);
+        int[] blockMins = scratch.blockMins(subWidth * subHeight);
+        BitMatrix newMatrix = scratch.matrix(width, height);
+
+        int stripCount = 1;
+        if (PARALLELISM > 1 && width * height >= PARALLEL_MIN_PIXELS) {
+            stripCount = Math.max(1, Math.min(PARALLELISM, subHeight / MIN_STRIP_BLOCK_ROWS));
+        }
+        scratch.frameLuminances = luminances;
+        scratch.frameWidth = width;
+        scratch.frameHeight = height;
+        scratch.subWidth = subWidth;
+        scratch.subHeight = subHeight;
+        scratch.frameMatrix = newMatrix;
+        try {
+            scratch.runStrips(stripCount, false);
+            resolveLowContrastBlocks(subWidth, subHeight, blackPoints, blockMins);
+            scratch.runStrips(stripCount, true);
+        } finally {
+            scratch.frameLuminances = null;
+            scratch.frameMatrix = null;
+        }
+        matrix = newMatrix;
+        return matrix;
+    }
+
+    /**
+     * Matrices from this binarizer's scratch must not be shared, so a new one gets its own.
+     */
+    @Override
+    public Binarizer createBinarizer(LuminanceSource source) {
+        return new ReusableBinarizer(source, new Scratch());
+    }
+
+    /**
+     * For each block in the image, calculate the average black point using a 5x5 grid
+     * of the blocks around it. Also handles the corner cases (fractional blocks are computed based
+     * on the last pixels in the row/column which are also used in the previous block).
+     */
+    private static void calculateThresholdForBlock(byte[] luminances, int subWidth, int subHeight,
+                                                   int width, int height, int[] blackPoints,
+                                                   BitMatrix matrix, int firstBlockRow, int endBlockRow) {
+        int maxYOffset = height - BLOCK_SIZE;
+        int maxXOffset = width - BLOCK_SIZE;
+        for (int y = firstBlockRow; y < endBlockRow; y++) {
+            int yoffset = y << BLOCK_SIZE_POWER;
+            if (yoffset > maxYOffset) {
+                yoffset = maxYOffset;
+            }
+            int top = cap(y, 2, subHeight - 3);
+            for (int x = 0; x < subWidth; x++) {
+                int xoffset = x << BLOCK_SIZE_POWER;
+                if (xoffset > maxXOffset) {
+                    xoffset = maxXOffset;
+                }
+                int left = cap(x, 2, subWidth - 3);
+                int sum = 0;
+                for (int z = -2; z <= 2; z++) {
+                    int rowOffset = (top + z) * subWidth + left;
+                    sum += blackPoints[rowOffset - 2] + blackPoints[rowOffset - 1] + blackPoints[rowOffset] +
+                            blackPoints[rowOffset + 1] + blackPoints[rowOffset + 2];
+                }
+                int average = sum / 25;
+                thresholdBlock(luminances, xoffset, yoffset, average, width, matrix);
+            }
+        }
+    }
+
+    private static int cap(int value, int min, int max) {
+        return value < min ? min : value > max ? max : value;
+    }
+
+    /**
+     * Applies a single threshold to a block of pixels.
+     */
+    private static void thresholdBlock(byte[] luminances, int xoffset, int yoffset, int threshold,
+                                       int stride, BitMatrix matrix) {
+        for (int y = 0, offset = yoffset * stride + xoffset; y < BLOCK_SIZE; y++, offset += stride) {
+            for (int x = 0; x < BLOCK_SIZE; x++) {
+                // Comparison needs to be <= so that black == 0 pixels are black even if the threshold is 0.
+                if ((luminances[offset + x] & 0xFF) <= threshold) {
+                    matrix.set(xoffset + x, yoffset + y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates a single black point for each block of pixels and saves it away, in row-major order.
+     * See the following thread for a discussion of this algorithm:
+     * http://groups.google.com/group/zxing/browse_thread/thread/d06efa2c35a7ddc0
+     * <p>
+     * Only covers the given block rows. Low contrast blocks get their minimum recorded in {@code blockMins}
+     * instead, to be finished by {@link #resolveLowContrastBlocks(int, int, int[], int[])}.
+     */
+    private static void measureBlocks(byte[] luminances, int subWidth, int width, int height,
+                                      int[] blackPoints, int[] blockMins, int firstBlockRow, int endBlockRow) {
+        int maxYOffset = height - BLOCK_SIZE;
+        int maxXOffset = width - BLOCK_SIZE;
+        for (int y = firstBlockRow; y < endBlockRow; y++) {
+            int yoffset = y << BLOCK_SIZE_POWER;
+            if (yoffset > maxYOffset) {
+                yoffset = maxYOffset;
+            }
+            for (int x = 0; x < subWidth; x++) {
+                int xoffset = x << BLOCK_SIZE_POWER;
+                if (xoffset > maxXOffset) {
+                    xoffset = maxXOffset;
+                }
+                int sum = 0;
+                int min = 0xFF;
+                int max = 0;
+                for (int yy = 0, offset = yoffset * width + xoffset; yy < BLOCK_SIZE; yy++, offset += width) {
+                    for (int xx = 0; xx < BLOCK_SIZE; xx++) {
+                        int pixel = luminances[offset + xx] & 0xFF;
+                        sum += pixel;
+                        // still looking for good contrast
+                        if (pixel < min) {
+                            min = pixel;
+                        }
+                        if (pixel > max) {
+                            max = pixel;
+                        }
+                    }
+                    // short-circuit min/max tests once dynamic range is met
+                    if (max - min > MIN_DYNAMIC_RANGE) {
+                        // finish the rest of the rows quickly
+                        for (yy++, offset += width; yy < BLOCK_SIZE; yy++, offset += width) {
+                            for (int xx = 0; xx < BLOCK_SIZE; xx++) {
+                                sum += luminances[offset + xx] & 0xFF;
+                            }
+                        }
+                    }
+                }
+
+                int index = y * subWidth + x;
+                if (max - min <= MIN_DYNAMIC_RANGE) {
+                    blockMins[index] = min;
+                } else {
+                    // The default estimate is the average of the values in the block.
+                    blackPoints[index] = sum >> (BLOCK_SIZE_POWER * 2);
+                    blockMins[index] = HIGH_CONTRAST;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finishes the black points of low contrast blocks. Each one may depend on the blocks above and to the
+     * left of it, so this goes through the whole frame in row-major order, but only reads back the values
+     * {@link #measureBlocks} left.
+     */
+    private static void resolveLowContrastBlocks(int subWidth, int subHeight, int[] blackPoints, int[] blockMins) {
+        for (int y = 0; y < subHeight; y++) {
+            for (int x = 0; x < subWidth; x++) {
+                int min = blockMins[y * subWidth + x];
+                if (min == HIGH_CONTRAST) {
+                    continue;
+                }
+                // If variation within the block is low, assume this is a block with only light or only
+                // dark pixels. In that case we do not want to use the average, as it would divide this
+                // low contrast area into black and white pixels, essentially creating data out of noise.
+                //
+                // The default assumption is that the block is light/background. Since no estimate for
+                // the level of dark pixels exists locally, use half the min for the block.
+                int average = min / 2;
+
+                if (y > 0 && x > 0) {
+                    // Correct the "white background" assumption for blocks that have neighbors by comparing
+                    // the pixels in this block to the previously calculated black points. This is based on
+                    // the fact that dark barcode symbology is always surrounded by some amount of light
+                    // background for which reasonable black point estimates were made. The bp estimated at
+                    // the boundaries is used for the interior.
+
+                    // The (min < bp) is arbitrary but works better than other heuristics that were tried.
+                    int above = (y - 1) * subWidth + x;
+                    int averageNeighborBlackPoint =
+                            (blackPoints[above] + (2 * blackPoints[y * subWidth + x - 1]) + blackPoints[above - 1]) / 4;
+                    if (min < averageNeighborBlackPoint) {
+                        average = averageNeighborBlackPoint;
+                    }
+                }
+                blackPoints[y * subWidth + x] = average;
+            }
+        }
+    }
+
+    /**
+     * As in GlobalHistogramBinarizer: finds the valley between the two tallest peaks of the histogram.
+     */
+    private static int estimateBlackPoint(int[] buckets) throws NotFoundException {
+        // Find the tallest peak in the histogram.
+        int numBuckets = buckets.length;
+        int maxBucketCount = 0;
+        int firstPeak = 0;
+        int firstPeakSize = 0;
+        for (int x = 0; x < numBuckets; x++) {
+            if (buckets[x] > firstPeakSize) {
+                firstPeak = x;
+                firstPeakSize = buckets[x];
+            }
+            if (buckets[x] > maxBucketCount) {
+                maxBucketCount = buckets[x];
+            }
+        }
+
+        // Find the second-tallest peak which is somewhat far from the tallest peak.
+        int secondPeak = 0;
+        int secondPeakScore = 0;
+        for (int x = 0; x < numBuckets; x++) {
+            int distanceToBiggest = x - firstPeak;
+            // Encourage more distant second peaks by multiplying by square of distance.
+            int score = buckets[x] * distanceToBiggest * distanceToBiggest;
+            if (score > secondPeakScore) {
+                secondPeak = x;
+                secondPeakScore = score;
+            }
+        }
+
+        // Make sure firstPeak corresponds to the black peak.
+        if (firstPeak > secondPeak) {
+            int temp = firstPeak;
+            firstPeak = secondPeak;
+            secondPeak = temp;
+        }
+
+        // If there is too little contrast in the image to pick a meaningful black point, throw rather
+        // than waste time trying to decode the image, and risk false positives.
+        if (secondPeak - firstPeak <= numBuckets / 16) {
+            throw NotFoundException.getNotFoundInstance();
+        }
+
+        // Find a valley between them that is low and closer to the white peak.
+        int bestValley = secondPeak - 1;
+        int bestValleyScore = -1;
+        for (int x = secondPeak - 1; x > firstPeak; x--) {
+            int fromFirst = x - firstPeak;
+            int score = fromFirst * fromFirst * (secondPeak - x) * (maxBucketCount - buckets[x]);
+            if (score > bestValleyScore) {
+                bestValley = x;
+                bestValleyScore = score;
+            }
+        }
+
+        return bestValley << LUMINANCE_SHIFT;
+    }
+
+}
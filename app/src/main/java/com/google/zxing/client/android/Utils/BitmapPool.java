@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.Utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Keeps mutable bitmaps that are no longer shown so that the next result thumbnail or encoded barcode can
+ * reuse their memory, either through {@link Bitmap#reconfigure(int, int, Bitmap.Config)} or as
+ * {@link BitmapFactory.Options#inBitmap}. Bitmaps are bucketed by allocation size, in powers of two.
+ * <p>
+ * 按大小分桶的 Bitmap 复用池,扫描结果的缩略图和生成的二维码共用,避免反复申请大块内存.
+ */
+public final class BitmapPool {
+
+  private static final String TAG = BitmapPool.class.getSimpleName();
+
+  private static final int MAX_POOL_BYTES = 8 * 1024 * 1024;
+  private static final int MAX_PER_BUCKET = 4;
+  /** Don't hand out a bitmap more than this many buckets larger than what was asked for. */
+  private static final int MAX_BUCKETS_LARGER = 2;
+
+  @SuppressWarnings("unchecked")
+  private static final ArrayDeque<Bitmap>[] buckets = new ArrayDeque[Integer.SIZE];
+  private static int pooledBytes;
+
+  private BitmapPool() {
+  }
+
+  /**
+   * @return a mutable bitmap of the given size, whose contents are undefined
+   */
+  public static Bitmap get(int width, int height, Bitmap.Config config) {
+    Bitmap bitmap = take(width * height * bytesPerPixel(config));
+    if (bitmap != null) {
+      try {
+        bitmap.reconfigure(width, height, config);
+        return bitmap;
+      } catch (IllegalArgumentException iae) {
+        Log.w(TAG, "Could not reuse bitmap", iae);
+        bitmap.recycle();
+      }
+    }
+    return Bitmap.createBitmap(width, height, config);
+  }
+
+  /**
+   * Decodes an image into a mutable ARGB_8888 bitmap, reusing a pooled one if possible.
+   *
+   * @return the decoded bitmap, or {@code null} if the data could not be decoded
+   */
+  public static Bitmap decodeMutable(byte[] data) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      return null;
+    }
+    options.inJustDecodeBounds = false;
+    options.inMutable = true;
+    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    options.inBitmap = take(options.outWidth * options.outHeight * bytesPerPixel(Bitmap.Config.ARGB_8888));
+    try {
+      return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    } catch (IllegalArgumentException iae) {
+      if (options.inBitmap == null) {
+        // Nothing pooled was involved, so trying again would fail the same way
+        throw iae;
+      }
+      // The pooled bitmap could not be used after all
+      Log.w(TAG, "Could not decode into pooled bitmap", iae);
+      options.inBitmap.recycle();
+      options.inBitmap = null;
+      return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+  }
+
+  /**
+   * Gives a bitmap back for reuse. It must no longer be displayed or otherwise used by the caller.
+   * Immutable bitmaps, such as resources, are ignored.
+   */
+  public static void put(Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+      return;
+    }
+    int bytes = bitmap.getAllocationByteCount();
+    synchronized (BitmapPool.class) {
+      ArrayDeque<Bitmap> bucket = bucket(bucketIndex(bytes));
+      if (pooledBytes + bytes <= MAX_POOL_BYTES && bucket.size() < MAX_PER_BUCKET) {
+        bucket.push(bitmap);
+        pooledBytes += bytes;
+        return;
+      }
+    }
+    bitmap.recycle();
+  }
+
+  private static synchronized Bitmap take(int bytes) {
+    int first = bucketIndex(bytes);
+    int last = Math.min(buckets.length - 1, first + MAX_BUCKETS_LARGER);
+    for (int i = first; i <= last; i++) {
+      ArrayDeque<Bitmap> bucket = buckets[i];
+      if (bucket == null) {
+        continue;
+      }
+      for (Iterator<Bitmap> it = bucket.iterator(); it.hasNext(); ) {
+        Bitmap bitmap = it.next();
+        int allocated = bitmap.getAllocationByteCount();
+        if (allocated >= bytes) {
+          it.remove();
+          pooledBytes -= allocated;
+          return bitmap;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static ArrayDeque<Bitmap> bucket(int index) {
+    ArrayDeque<Bitmap> bucket = buckets[index];
+    if (bucket == null) {
+      bucket = new ArrayDeque<>(MAX_PER_BUCKET);
+      buckets[index] = bucket;
+    }
+    return bucket;
+  }
+
+  private static int bucketIndex(int bytes) {
+    return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(Math.max(1, bytes));
+  }
+
+  private static int bytesPerPixel(Bitmap.Config config) {
+    switch (config) {
+      case ALPHA_8:
+        return 1;
+      case RGB_565:
+      case ARGB_4444:
+        return 2;
+      default:
+        return 4;
+    }
+  }
+
+}
@@ -22,6 +22,7 @@ import android.hardware.Camera;
 import android.os.Build;
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -272,6 +273,55 @@ public final class CameraConfigurationUtils {
     }
   }
 
+  /**
+   * Like {@link #findBestPreviewSizeValue(Camera.Parameters, Point)}, but returns {@code preferredSize}
+   * when the camera supports it, e.g. a size picked by on-device calibration.
+   */
+  public static Point findBestPreviewSizeValue(Camera.Parameters parameters,
+                                               Point screenResolution,
+                                               Point preferredSize) {
+    if (preferredSize != null) {
+      List<Camera.Size> rawSupportedSizes = parameters.getSupportedPreviewSizes();
+      if (rawSupportedSizes != null) {
+        for (Camera.Size size : rawSupportedSizes) {
+          if (size.width == preferredSize.x && size.height == preferredSize.y) {
+            Point preferredPoint = new Point(size.width, size.height);
+            Log.i(TAG, "Using preferred preview size: " + preferredPoint);
+            return preferredPoint;
+          }
+        }
+      }
+      Log.w(TAG, "Preferred preview size is not supported: " + preferredSize);
+    }
+    return findBestPreviewSizeValue(parameters, screenResolution);
+  }
+
+  /**
+   * @return every supported preview size that is large enough and close enough to the screen's aspect
+   *  ratio to be considered by {@link #findBestPreviewSizeValue(Camera.Parameters, Point)}
+   */
+  public static List<Point> findSuitablePreviewSizes(Camera.Parameters parameters, Point screenResolution) {
+    List<Point> suitableSizes = new ArrayList<>();
+    List<Camera.Size> rawSupportedSizes = parameters.getSupportedPreviewSizes();
+    if (rawSupportedSizes == null) {
+      return suitableSizes;
+    }
+    double screenAspectRatio = screenResolution.x / (double) screenResolution.y;
+    for (Camera.Size size : rawSupportedSizes) {
+      if (size.width * size.height < MIN_PREVIEW_PIXELS) {
+        continue;
+      }
+      boolean isCandidatePortrait = size.width < size.height;
+      int maybeFlippedWidth = isCandidatePortrait ? size.height : size.width;
+      int maybeFlippedHeight = isCandidatePortrait ? size.width : size.height;
+      double aspectRatio = maybeFlippedWidth / (double) maybeFlippedHeight;
+      if (Math.abs(aspectRatio - screenAspectRatio) <= MAX_ASPECT_DISTORTION) {
+        suitableSizes.add(new Point(size.width, size.height));
+      }
+    }
+    return suitableSizes;
+  }
+
   public static Point findBestPreviewSizeValue(Camera.Parameters parameters, Point screenResolution) {
 
     List<Camera.Size> rawSupportedSizes = parameters.getSupportedPreviewSizes();
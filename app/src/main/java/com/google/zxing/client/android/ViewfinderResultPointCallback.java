@@ -16,20 +16,131 @@
 
 package com.google.zxing.client.android;
 
+import android.graphics.PointF;
+import android.os.SystemClock;
+
 import com.google.zxing.ResultPoint;
 import com.google.zxing.ResultPointCallback;
 
+/**
+ * Collects the result points found while decoding one frame into a reusable array and hands them to
+ * the {@link ViewfinderView} in one go, at most as often as the viewfinder redraws. Only the decode
+ * thread touches this object.
+ * <p>
+ * 一帧里找到的点先攒在数组里,一帧结束后一次性交给扫描框,并且不超过扫描框的刷新频率.
+ */
 final class ViewfinderResultPointCallback implements ResultPointCallback {
 
+  private static final int MAX_POINTS_PER_FRAME = 20;
+
   private final ViewfinderView viewfinderView;
+  private final float[] points;
+  private int pointCount;
+  private int pointsInFrame;
+  private float scale = 1.0f;
+  private float offsetX;
+  private float offsetY;
+  private long lastPublished;
 
   ViewfinderResultPointCallback(ViewfinderView viewfinderView) {
     this.viewfinderView = viewfinderView;
+    points = new float[MAX_POINTS_PER_FRAME * 2];
   }
 
   @Override
   public void foundPossibleResultPoint(ResultPoint point) {
-    viewfinderView.addPossibleResultPoint(point);
+    pointsInFrame++;
+    if (pointCount < MAX_POINTS_PER_FRAME) {
+      points[pointCount * 2] = point.getX() * scale + offsetX;
+      points[pointCount * 2 + 1] = point.getY() * scale + offsetY;
+      pointCount++;
+    }
+  }
+
+  /**
+   * Call before decoding a new frame whose luminance source is the framing rect itself.
+   */
+  void startFrame() {
+    startFrame(1.0f, 0.0f, 0.0f);
+  }
+
+  /**
+   * Call before decoding a new frame whose luminance source is not the framing rect. Points are kept
+   * relative to the framing rect, so that they are drawn where they were seen.
+   *
+   * @param scale   preview pixels per pixel of the luminance source
+   * @param offsetX x of the source's origin relative to the framing rect, in preview pixels
+   * @param offsetY y of the source's origin relative to the framing rect, in preview pixels
+   */
+  void startFrame(float scale, float offsetX, float offsetY) {
+    this.scale = scale;
+    this.offsetX = offsetX;
+    this.offsetY = offsetY;
+    pointCount = 0;
+    pointsInFrame = 0;
+  }
+
+  /**
+   * @return how many result points were found in the current frame, including ones not kept
+   */
+  int getPointsInFrame() {
+    return pointsInFrame;
+  }
+
+  /**
+   * @param center receives the mean of this frame's points, relative to the framing rect
+   * @return {@code false} if no points were kept
+   */
+  boolean getPointCenter(PointF center) {
+    if (pointCount == 0) {
+      return false;
+    }
+    float sumX = 0.0f;
+    float sumY = 0.0f;
+    for (int i = 0; i < pointCount; i++) {
+      sumX += points[i * 2];
+      sumY += points[i * 2 + 1];
+    }
+    center.set(sumX / pointCount, sumY / pointCount);
+    return true;
+  }
+
+  /**
+   * @return the larger of the width and height spanned by this frame's points, as a fraction of the
+   * corresponding side of the framing rect, or 0 if fewer than two points were kept
+   */
+  float getPointSpread(int width, int height) {
+    if (pointCount < 2 || width <= 0 || height <= 0) {
+      return 0.0f;
+    }
+    float minX = points[0];
+    float maxX = minX;
+    float minY = points[1];
+    float maxY = minY;
+    for (int i = 1; i < pointCount; i++) {
+      float x = points[i * 2];
+      float y = points[i * 2 + 1];
+      minX = Math.min(minX, x);
+      maxX = Math.max(maxX, x);
+      minY = Math.min(minY, y);
+      maxY = Math.max(maxY, y);
+    }
+    return Math.max((maxX - minX) / width, (maxY - minY) / height);
+  }
+
+  /**
+   * Call after decoding a frame. Points are dropped if the viewfinder was updated too recently to show them.
+   */
+  void publishFrame() {
+    if (pointCount == 0) {
+      return;
+    }
+    long now = SystemClock.elapsedRealtime();
+    if (now - lastPublished >= ViewfinderView.ANIMATION_DELAY) {
+      viewfinderView.addPossibleResultPoints(points, pointCount);
+      lastPublished = now;
+    }
+    pointCount = 0;
   }
 
 }
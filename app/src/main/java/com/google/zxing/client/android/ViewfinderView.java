@@ -17,9 +17,9 @@
 package com.google.zxing.client.android;
 
 import com.google.zxing.ResultPoint;
+import com.google.zxing.client.android.Utils.BitmapPool;
 import com.google.zxing.client.android.camera.CameraManager;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
@@ -29,9 +29,6 @@ import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.View;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * This view is overlaid on top of the camera preview. It adds the viewfinder rectangle and partial
  * transparency outside it, as well as the laser scanner animation and result points.
@@ -43,7 +40,7 @@ import java.util.List;
 public final class ViewfinderView extends View {
 
   private static final int[] SCANNER_ALPHA = {0, 64, 128, 192, 255, 192, 128, 64};
-  private static final long ANIMATION_DELAY = 80L;
+  static final long ANIMATION_DELAY = 80L;
   private static final int CURRENT_POINT_OPACITY = 0xA0;
   private static final int MAX_RESULT_POINTS = 20;
   private static final int POINT_SIZE = 6;
@@ -56,8 +53,16 @@ public final class ViewfinderView extends View {
   private final int laserColor;
   private final int resultPointColor;
   private int scannerAlpha;
-  private List<ResultPoint> possibleResultPoints;
-  private List<ResultPoint> lastPossibleResultPoints;
+  // Single producer (decode thread) / single consumer (UI thread) ring of x, y pairs in preview coordinates.
+  // If the decoder laps the UI the oldest points are dropped; a point being overwritten while it is read
+  // only ever misplaces one dot for one frame.
+  private final float[] possibleResultPoints;
+  private volatile long possibleResultPointsWritten;
+  private long possibleResultPointsRead;
+  // Screen coordinates for drawPoints(), swapped every frame so that onDraw() never allocates
+  private float[] currentPoints;
+  private float[] lastPoints;
+  private int lastPointCount;
 
   // This constructor is used when the class is built from an XML resource.
   public ViewfinderView(Context context, AttributeSet attrs) {
@@ -70,16 +75,17 @@ public final class ViewfinderView extends View {
     resultColor = resources.getColor(R.color.result_view);
     laserColor = resources.getColor(R.color.viewfinder_laser);
     resultPointColor = resources.getColor(R.color.possible_result_points);
+    paint.setStrokeCap(Paint.Cap.ROUND);
     scannerAlpha = 0;
-    possibleResultPoints = new ArrayList<>(5);
-    lastPossibleResultPoints = null;
+    possibleResultPoints = new float[MAX_RESULT_POINTS * 2];
+    currentPoints = new float[MAX_RESULT_POINTS * 2];
+    lastPoints = new float[MAX_RESULT_POINTS * 2];
   }
 
   public void setCameraManager(CameraManager cameraManager) {
     this.cameraManager = cameraManager;
   }
 
-  @SuppressLint("DrawAllocation")
   @Override
   public void onDraw(Canvas canvas) {
     if (cameraManager == null) {
@@ -116,37 +122,23 @@ public final class ViewfinderView extends View {
       float scaleX = frame.width() / (float) previewFrame.width();
       float scaleY = frame.height() / (float) previewFrame.height();
 
-      List<ResultPoint> currentPossible = possibleResultPoints;
-      List<ResultPoint> currentLast = lastPossibleResultPoints;
-      int frameLeft = frame.left;
-      int frameTop = frame.top;
-      if (currentPossible.isEmpty()) {
-        lastPossibleResultPoints = null;
-      } else {
-        possibleResultPoints = new ArrayList<>(5);
-        lastPossibleResultPoints = currentPossible;
+      int pointCount = drainPossibleResultPoints(currentPoints, frame.left, frame.top, scaleX, scaleY);
+      paint.setColor(resultPointColor);
+      if (pointCount > 0) {
         paint.setAlpha(CURRENT_POINT_OPACITY);
-        paint.setColor(resultPointColor);
-        synchronized (currentPossible) {
-          for (ResultPoint point : currentPossible) {
-            canvas.drawCircle(frameLeft + (int) (point.getX() * scaleX),
-                              frameTop + (int) (point.getY() * scaleY),
-                              POINT_SIZE, paint);
-          }
-        }
+        paint.setStrokeWidth(POINT_SIZE * 2);
+        canvas.drawPoints(currentPoints, 0, pointCount * 2, paint);
       }
-      if (currentLast != null) {
+      if (lastPointCount > 0) {
         paint.setAlpha(CURRENT_POINT_OPACITY / 2);
-        paint.setColor(resultPointColor);
-        synchronized (currentLast) {
-          float radius = POINT_SIZE / 2.0f;
-          for (ResultPoint point : currentLast) {
-            canvas.drawCircle(frameLeft + (int) (point.getX() * scaleX),
-                              frameTop + (int) (point.getY() * scaleY),
-                              radius, paint);
-          }
-        }
+        paint.setStrokeWidth(POINT_SIZE);
+        canvas.drawPoints(lastPoints, 0, lastPointCount * 2, paint);
       }
+      // This frame's points fade out on the next frame
+      float[] drawn = currentPoints;
+      currentPoints = lastPoints;
+      lastPoints = drawn;
+      lastPointCount = pointCount;
 
       // Request another update at the animation interval, but only repaint the laser line,
       // not the entire viewfinder mask.
@@ -161,9 +153,7 @@ public final class ViewfinderView extends View {
   public void drawViewfinder() {
     Bitmap resultBitmap = this.resultBitmap;
     this.resultBitmap = null;
-    if (resultBitmap != null) {
-      resultBitmap.recycle();
-    }
+    BitmapPool.put(resultBitmap);
     invalidate();
   }
 
@@ -178,15 +168,58 @@ public final class ViewfinderView extends View {
   }
 
   public void addPossibleResultPoint(ResultPoint point) {
-    List<ResultPoint> points = possibleResultPoints;
-    synchronized (points) {
-      points.add(point);
-      int size = points.size();
-      if (size > MAX_RESULT_POINTS) {
-        // trim it
-        points.subList(0, size - MAX_RESULT_POINTS / 2).clear();
-      }
+    addPossibleResultPoint(point.getX(), point.getY());
+  }
+
+  /**
+   * Called from the decode thread only.
+   *
+   * @param x x coordinate in the preview frame
+   * @param y y coordinate in the preview frame
+   */
+  public void addPossibleResultPoint(float x, float y) {
+    long written = possibleResultPointsWritten;
+    int slot = (int) (written % MAX_RESULT_POINTS) * 2;
+    possibleResultPoints[slot] = x;
+    possibleResultPoints[slot + 1] = y;
+    possibleResultPointsWritten = written + 1;
+  }
+
+  /**
+   * Adds a whole frame's worth of points and publishes them to the UI thread once. Called from the
+   * decode thread only.
+   *
+   * @param points x, y pairs in preview frame coordinates
+   * @param count  number of pairs to read from {@code points}
+   */
+  void addPossibleResultPoints(float[] points, int count) {
+    long written = possibleResultPointsWritten;
+    for (int i = 0; i < count; i++) {
+      int slot = (int) ((written + i) % MAX_RESULT_POINTS) * 2;
+      possibleResultPoints[slot] = points[i * 2];
+      possibleResultPoints[slot + 1] = points[i * 2 + 1];
+    }
+    possibleResultPointsWritten = written + count;
+  }
+
+  /**
+   * Moves the points added since the last call into {@code screenPoints}, mapped to screen coordinates.
+   *
+   * @return number of points, each taking two floats
+   */
+  private int drainPossibleResultPoints(float[] screenPoints, int frameLeft, int frameTop,
+                                        float scaleX, float scaleY) {
+    long written = possibleResultPointsWritten;
+    long read = Math.max(possibleResultPointsRead, written - MAX_RESULT_POINTS);
+    int count = 0;
+    for (long i = read; i < written; i++) {
+      int slot = (int) (i % MAX_RESULT_POINTS) * 2;
+      screenPoints[count * 2] = frameLeft + (int) (possibleResultPoints[slot] * scaleX);
+      screenPoints[count * 2 + 1] = frameTop + (int) (possibleResultPoints[slot + 1] * scaleY);
+      count++;
     }
+    possibleResultPointsRead = written;
+    return count;
   }
 
 }
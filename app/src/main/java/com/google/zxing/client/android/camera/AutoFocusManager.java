@@ -19,7 +19,7 @@ package com.google.zxing.client.android.camera;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.hardware.Camera;
-import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
@@ -27,14 +27,33 @@ import com.google.zxing.client.android.PreferencesActivity;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
-
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Triggers auto focus when the frames reported by the decoder get blurry, or when the decoder keeps
+ * finding result points without managing to decode. While frames stay sharp the lens is left alone.
+ * All focus requests run on one shared scheduled thread.
+ * <p>
+ * 根据画面清晰度和"差一点就解出来"的次数来触发对焦,画面清晰的时候不再定时对焦.
+ */
 @SuppressWarnings("deprecation") // camera APIs
 final class AutoFocusManager implements Camera.AutoFocusCallback {
 
     private static final String TAG = AutoFocusManager.class.getSimpleName();
 
+    /** Used only while the decoder reports nothing, e.g. while a result is being shown. */
     private static final long AUTO_FOCUS_INTERVAL_MS = 2000L;//自动对焦的时间间隔
+    /** Never refocus more often than this, however blurry the frames are. */
+    private static final long MIN_FOCUS_INTERVAL_MS = 1000L;
+    /** A frame this much less sharp than the best one since the last focus counts as blurry. */
+    private static final float SHARPNESS_DROP_RATIO = 0.6f;
+    private static final int BLURRY_FRAMES_BEFORE_FOCUS = 2;
+    private static final int NEAR_MISSES_BEFORE_FOCUS = 3;
     private static final Collection<String> FOCUS_MODES_CALLING_AF;
 
     static {
@@ -43,11 +62,18 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
         FOCUS_MODES_CALLING_AF.add(Camera.Parameters.FOCUS_MODE_MACRO);
     }
 
+    private static ScheduledExecutorService focusExecutor;
+
     private boolean stopped;
     private boolean focusing;
     private final boolean useAutoFocus;//是否自动对焦
     private final Camera camera;
-    private AsyncTask<?, ?, ?> outstandingTask;
+    private ScheduledFuture<?> outstandingTask;
+    private long lastFocusTime;
+    private float peakSharpness;
+    private int blurryFrames;
+    private int nearMisses;
+    private boolean framesReported;
 
     AutoFocusManager(Context context, Camera camera) {
         this.camera = camera;
@@ -64,20 +90,100 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
         start();
     }
 
+    private static synchronized ScheduledExecutorService getFocusExecutor() {
+        if (focusExecutor == null) {
+            focusExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return focusExecutor;
+    }
+
 
     /*-----自动对焦回调-----*/
     @Override
     public synchronized void onAutoFocus(boolean success, Camera theCamera) {
         focusing = false;
-        autoFocusAgainLater();
+        lastFocusTime = SystemClock.elapsedRealtime();
+        peakSharpness = 0.0f;
+        blurryFrames = 0;
+        nearMisses = 0;
+        framesReported = false;
+        // Only keeps the old cadence going if the decoder never tells us about a frame
+        scheduleFocus(AUTO_FOCUS_INTERVAL_MS);
+    }
+
+    /**
+     * @return {@code true} while the lens is sweeping, when frames are unlikely to be sharp
+     */
+    synchronized boolean isFocusing() {
+        return focusing && !stopped;
+    }
+
+    /**
+     * Called by the decoder for every frame it looked at.
+     * <p>
+     * 解码线程每处理一帧就报告一次清晰度,清晰度明显下降时重新对焦.
+     *
+     * @param sharpness mean local contrast of the framing rect; only compared with other values
+     */
+    synchronized void onFrameSharpness(float sharpness) {
+        if (!useAutoFocus || stopped || focusing) {
+            return;
+        }
+        if (!framesReported) {
+            framesReported = true;
+            cancelOutstandingTask();
+        }
+        if (sharpness > peakSharpness) {
+            peakSharpness = sharpness;
+            blurryFrames = 0;
+        } else if (sharpness < peakSharpness * SHARPNESS_DROP_RATIO) {
+            blurryFrames++;
+            if (blurryFrames >= BLURRY_FRAMES_BEFORE_FOCUS) {
+                Log.d(TAG, "Frames got blurry (" + sharpness + " vs " + peakSharpness + "); refocusing");
+                requestFocus();
+            }
+        } else {
+            blurryFrames = 0;
+        }
+    }
+
+    /**
+     * Called by the decoder when a frame showed result points but could not be decoded.
+     */
+    synchronized void onNearMiss() {
+        if (!useAutoFocus || stopped || focusing) {
+            return;
+        }
+        nearMisses++;
+        if (nearMisses >= NEAR_MISSES_BEFORE_FOCUS) {
+            Log.d(TAG, nearMisses + " near misses; refocusing");
+            requestFocus();
+        }
+    }
+
+    private void requestFocus() {
+        blurryFrames = 0;
+        nearMisses = 0;
+        long sinceLastFocus = SystemClock.elapsedRealtime() - lastFocusTime;
+        scheduleFocus(Math.max(0L, MIN_FOCUS_INTERVAL_MS - sinceLastFocus));
     }
 
-    private synchronized void autoFocusAgainLater() {
+    private synchronized void scheduleFocus(long delayMS) {
         if (!stopped && outstandingTask == null) {
-            AutoFocusTask newTask = new AutoFocusTask();
             try {
-                newTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                outstandingTask = newTask;
+                outstandingTask = getFocusExecutor().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        start();
+                    }
+                }, delayMS, TimeUnit.MILLISECONDS);
             } catch (RejectedExecutionException ree) {
                 Log.w(TAG, "Could not request auto focus", ree);
             }
@@ -95,7 +201,7 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
                     // Have heard RuntimeException reported in Android 4.0.x+; continue?
                     Log.w(TAG, "Unexpected exception while focusing", re);
                     // Try again later to keep cycle going
-                    autoFocusAgainLater();
+                    scheduleFocus(AUTO_FOCUS_INTERVAL_MS);
                 }
             }
         }
@@ -103,9 +209,7 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
 
     private synchronized void cancelOutstandingTask() {
         if (outstandingTask != null) {
-            if (outstandingTask.getStatus() != AsyncTask.Status.FINISHED) {
-                outstandingTask.cancel(true);
-            }
+            outstandingTask.cancel(false);
             outstandingTask = null;
         }
     }
@@ -124,17 +228,4 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
         }
     }
 
-    private final class AutoFocusTask extends AsyncTask<Object, Object, Object> {
-        @Override
-        protected Object doInBackground(Object... voids) {
-            try {
-                Thread.sleep(AUTO_FOCUS_INTERVAL_MS);
-            } catch (InterruptedException e) {
-                // continue
-            }
-            start();
-            return null;
-        }
-    }
-
 }
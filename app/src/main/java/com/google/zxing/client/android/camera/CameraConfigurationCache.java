@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.google.zxing.client.android.PreferencesActivity;
+import com.google.zxing.client.android.camera.open.OpenCamera;
+
+import java.util.regex.Pattern;
+
+/**
+ * Remembers the camera parameters that were negotiated by
+ * {@link CameraConfigurationManager#setDesiredCameraParameters(OpenCamera, boolean)}, keyed by camera ID,
+ * device fingerprint, screen resolution and the preferences that influence negotiation. A later open can
+ * then apply them with a single {@link Camera#setParameters(Camera.Parameters)} call.
+ * <p>
+ * 缓存协商好的相机参数,下次打开相机时一次性设置,失败再走完整的协商流程.
+ */
+@SuppressWarnings("deprecation") // camera APIs
+final class CameraConfigurationCache {
+
+    private static final String TAG = "CameraConfiguration";
+
+    private static final String PREFS_NAME = "camera_configuration_cache";
+
+    private static final Pattern SEMICOLON = Pattern.compile(";");
+    private static final Pattern X = Pattern.compile("x");
+
+    private static final String PREVIEW_SIZE_KEY = "preview-size";
+
+    /**
+     * Only the parameters we actually negotiate are remembered; everything else stays at the driver default.
+     */
+    private static final String[] CACHED_KEYS = {
+            PREVIEW_SIZE_KEY,
+            "preview-fps-range",
+            "focus-mode",
+            "focus-areas",
+            "metering-areas",
+            "scene-mode",
+            "flash-mode",
+            "exposure-compensation",
+            "effect",
+            "video-stabilization",
+            "recording-hint",
+    };
+
+    private final Context context;
+
+    CameraConfigurationCache(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @return the cached flattened parameters for this camera and screen, or {@code null} if none
+     */
+    String load(OpenCamera camera, Point screenResolution) {
+        return getPrefs().getString(buildKey(camera, screenResolution), null);
+    }
+
+    /**
+     * @return the preview size stored in a cached entry, or {@code null} if it has none
+     */
+    static Point getPreviewSize(String cached) {
+        String value = getValue(cached, PREVIEW_SIZE_KEY);
+        if (value == null) {
+            return null;
+        }
+        String[] dimensions = X.split(value);
+        if (dimensions.length != 2) {
+            return null;
+        }
+        try {
+            return new Point(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+        } catch (NumberFormatException nfe) {
+            Log.w(TAG, "Bad cached preview size: " + value);
+            return null;
+        }
+    }
+
+    /**
+     * Copies every cached value onto the given parameters. Nothing is sent to the camera here.
+     */
+    static void applyTo(String cached, Camera.Parameters parameters) {
+        for (String entry : SEMICOLON.split(cached)) {
+            int equals = entry.indexOf('=');
+            if (equals > 0) {
+                parameters.set(entry.substring(0, equals), entry.substring(equals + 1));
+            }
+        }
+    }
+
+    /**
+     * Records the values the camera accepted after a full, non safe-mode negotiation.
+     */
+    void save(OpenCamera camera, Point screenResolution, Camera.Parameters parameters) {
+        StringBuilder cached = new StringBuilder(200);
+        for (String key : CACHED_KEYS) {
+            String value = parameters.get(key);
+            if (value != null && !value.isEmpty()) {
+                if (cached.length() > 0) {
+                    cached.append(';');
+                }
+                cached.append(key).append('=').append(value);
+            }
+        }
+        Log.i(TAG, "Caching negotiated camera parameters: " + cached);
+        getPrefs().edit().putString(buildKey(camera, screenResolution), cached.toString()).apply();
+    }
+
+    /**
+     * Forgets the entry for this camera, for example after the camera rejected it.
+     */
+    void clear(OpenCamera camera, Point screenResolution) {
+        getPrefs().edit().remove(buildKey(camera, screenResolution)).apply();
+    }
+
+    /**
+     * Forgets every entry, for example after a new preview size profile was calibrated.
+     */
+    void clearAll() {
+        getPrefs().edit().clear().apply();
+    }
+
+    private SharedPreferences getPrefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private String buildKey(OpenCamera camera, Point screenResolution) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        // Any preference read during negotiation must be part of the key, or a change would be ignored
+        return camera.getIndex() + "|" + Build.FINGERPRINT + '|' +
+                screenResolution.x + 'x' + screenResolution.y + '|' +
+                FrontLightMode.readPref(prefs) + '|' +
+                prefs.getBoolean(PreferencesActivity.KEY_AUTO_FOCUS, true) +
+                prefs.getBoolean(PreferencesActivity.KEY_DISABLE_CONTINUOUS_FOCUS, true) +
+                prefs.getBoolean(PreferencesActivity.KEY_INVERT_SCAN, false) +
+                prefs.getBoolean(PreferencesActivity.KEY_DISABLE_BARCODE_SCENE_MODE, true) +
+                prefs.getBoolean(PreferencesActivity.KEY_DISABLE_METERING, true) +
+                prefs.getBoolean(PreferencesActivity.KEY_DISABLE_EXPOSURE, true) +
+                // Negotiation starts calibration, so turning it on must miss the cache
+                prefs.getBoolean(PreferencesActivity.KEY_CALIBRATE_PREVIEW_SIZE, false);
+    }
+
+    private static String getValue(String cached, String key) {
+        String prefix = key + '=';
+        for (String entry : SEMICOLON.split(cached)) {
+            if (entry.startsWith(prefix)) {
+                return entry.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+}
@@ -49,9 +49,14 @@ final class CameraConfigurationManager {
     private Point cameraResolution;//照相机分辨率
     private Point bestPreviewSize;//最合适的预览尺寸
     private Point previewSizeOnScreen;//屏幕上的预览大小
+    private final CameraConfigurationCache configurationCache;
+    private final PreviewSizeCalibrator previewSizeCalibrator;
+    private String cachedConfiguration;//上次协商好的参数
 
     CameraConfigurationManager(Context context) {
         this.context = context;
+        this.configurationCache = new CameraConfigurationCache(context);
+        this.previewSizeCalibrator = new PreviewSizeCalibrator(context);
     }
 
     /**
@@ -144,13 +149,43 @@ final class CameraConfigurationManager {
         screenResolution = theScreenResolution;
         Log.i(TAG, "Screen resolution in current orientation: " + screenResolution);
 
-        cameraResolution = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
+        cachedConfiguration = configurationCache.load(camera, screenResolution);
+        Point cachedPreviewSize =
+                cachedConfiguration == null ? null : CameraConfigurationCache.getPreviewSize(cachedConfiguration);
+        if (cachedPreviewSize == null) {
+            cachedConfiguration = null;
+            choosePreviewSize(camera, parameters);
+        } else {
+            Log.i(TAG, "Using cached preview size: " + cachedPreviewSize);
+            cameraResolution = cachedPreviewSize;
+            bestPreviewSize = new Point(cachedPreviewSize);
+            updatePreviewSizeOnScreen();
+        }
+    }
+
+    private void choosePreviewSize(OpenCamera camera, Camera.Parameters parameters) {
+        // 校准过的话用校准出来的尺寸,否则按默认的算法选最大的
+        Point calibratedSize = previewSizeCalibrator.loadProfile(camera, screenResolution);
+        if (calibratedSize == null) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            if (prefs.getBoolean(PreferencesActivity.KEY_CALIBRATE_PREVIEW_SIZE, false)) {
+                previewSizeCalibrator.calibrateInBackground(camera, screenResolution,
+                        CameraConfigurationUtils.findSuitablePreviewSizes(parameters, screenResolution));
+            }
+        }
+
+        cameraResolution =
+                CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution, calibratedSize);
         Log.i(TAG, "Camera resolution: " + cameraResolution);
 
         /*-------todo:最佳的预览尺寸,参数zxing-->android core中的算法,拿出来之后看屏幕的方向再设置----------*/
-        bestPreviewSize = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
+        bestPreviewSize = new Point(cameraResolution);
         Log.i(TAG, "Best available preview size: " + bestPreviewSize);
 
+        updatePreviewSizeOnScreen();
+    }
+
+    private void updatePreviewSizeOnScreen() {
         boolean isScreenPortrait = screenResolution.x < screenResolution.y;//竖屏
         boolean isPreviewSizePortrait = bestPreviewSize.x < bestPreviewSize.y;
 
@@ -162,6 +197,41 @@ final class CameraConfigurationManager {
         Log.i(TAG, "Preview size on screen: " + previewSizeOnScreen);
     }
 
+    /**
+     * 使用缓存的参数一次性设置相机,失败的话返回false,需要走完整的协商流程.
+     * <p>
+     * Applies the parameters cached from an earlier negotiation in one
+     * {@link Camera#setParameters(Camera.Parameters)} call.
+     *
+     * @return {@code false} if nothing was cached or the camera rejected the cached values, in which case
+     * the cache entry is dropped and the preview size is negotiated again
+     */
+    boolean applyCachedCameraParameters(OpenCamera camera) {
+        String cached = cachedConfiguration;
+        if (cached == null) {
+            return false;
+        }
+        cachedConfiguration = null;
+
+        Camera theCamera = camera.getCamera();
+        Camera.Parameters parameters = theCamera.getParameters();
+        if (parameters == null) {
+            return false;
+        }
+        try {
+            CameraConfigurationCache.applyTo(cached, parameters);
+            theCamera.setParameters(parameters);
+            theCamera.setDisplayOrientation(cwRotationFromDisplayToCamera);
+            Log.i(TAG, "Applied cached camera parameters");
+            return true;
+        } catch (RuntimeException re) {
+            Log.w(TAG, "Camera rejected cached parameters; negotiating again", re);
+            configurationCache.clear(camera, screenResolution);
+            choosePreviewSize(camera, theCamera.getParameters());
+            return false;
+        }
+    }
+
     /**
      * 设置摄像头参数
      *
@@ -241,6 +311,10 @@ final class CameraConfigurationManager {
             bestPreviewSize.x = afterSize.width;
             bestPreviewSize.y = afterSize.height;
         }
+
+        if (!safeMode) {
+            configurationCache.save(camera, screenResolution, afterParameters);
+        }
     }
 
     Point getBestPreviewSize() {
@@ -282,6 +356,41 @@ final class CameraConfigurationManager {
         camera.setParameters(parameters);
     }
 
+    int getExposureCompensation(Camera camera) {
+        Camera.Parameters parameters = camera.getParameters();
+        return parameters == null ? 0 : parameters.getExposureCompensation();
+    }
+
+    /**
+     * @return the compensation actually set, after clamping to what the camera supports
+     */
+    int setExposureCompensation(Camera camera, int compensationSteps) {
+        Camera.Parameters parameters = camera.getParameters();
+        int clamped = Math.max(parameters.getMinExposureCompensation(),
+                Math.min(parameters.getMaxExposureCompensation(), compensationSteps));
+        if (parameters.getExposureCompensation() != clamped) {
+            parameters.setExposureCompensation(clamped);
+            camera.setParameters(parameters);
+        }
+        return clamped;
+    }
+
+    /**
+     * @return the zoom index actually set, after clamping to what the camera supports
+     */
+    int setZoom(Camera camera, int zoom) {
+        Camera.Parameters parameters = camera.getParameters();
+        if (!parameters.isZoomSupported()) {
+            return 0;
+        }
+        int clamped = Math.max(0, Math.min(parameters.getMaxZoom(), zoom));
+        if (parameters.getZoom() != clamped) {
+            parameters.setZoom(clamped);
+            camera.setParameters(parameters);
+        }
+        return clamped;
+    }
+
     private void initializeTorch(Camera.Parameters parameters, SharedPreferences prefs, boolean safeMode) {
 
         boolean currentSetting = FrontLightMode.readPref(prefs) == FrontLightMode.ON;
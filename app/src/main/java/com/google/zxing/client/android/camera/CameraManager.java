@@ -17,10 +17,10 @@
 package com.google.zxing.client.android.camera;
 
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
-import android.os.Handler;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
@@ -48,6 +48,9 @@ public final class CameraManager {
     private static final int MIN_FRAME_HEIGHT = 240;
     private static final int MAX_FRAME_WIDTH = 1200; // = 5/8 * 1920
     private static final int MAX_FRAME_HEIGHT = 675; // = 5/8 * 1080
+    private static final int MIN_STRIP_HEIGHT = 96;
+    /** One frame being decoded, one waiting and one being filled by the camera. */
+    private static final int PREVIEW_BUFFERS = 3;
 
     private final Context context;
     private final CameraConfigurationManager configManager;
@@ -58,8 +61,13 @@ public final class CameraManager {
 
     private OpenCamera camera;
     private AutoFocusManager autoFocusManager;
+    private ExposureController exposureController;
+    private ZoomController zoomController;
+    private FrameQueue frameQueue;
     private Rect framingRect;
     private Rect framingRectInPreview;
+    private FramingShape framingShape = FramingShape.DEFAULT;
+    private boolean manualFramingRect;
     private boolean initialized;
     private boolean previewing;
     private int requestedCameraId = OpenCameraInterface.NO_REQUESTED_CAMERA;
@@ -114,6 +122,13 @@ public final class CameraManager {
 
         /*----------------------------参数设置-------------------------------------------*/
         Camera cameraObject = theCamera.getCamera();
+
+        // 有缓存的参数就一次性设置,省去协商的过程
+        if (configManager.applyCachedCameraParameters(theCamera)) {
+            cameraObject.setPreviewDisplay(holder);
+            return;
+        }
+
         Camera.Parameters parameters = cameraObject.getParameters();
         // Save these, temporarily
         String parametersFlattened = parameters == null ? null : parameters.flatten();
@@ -169,6 +184,7 @@ public final class CameraManager {
             // requested by intent is forgotten.
             framingRect = null;
             framingRectInPreview = null;
+            manualFramingRect = false;
         }
     }
 
@@ -180,10 +196,24 @@ public final class CameraManager {
     public synchronized void startPreview() {
         OpenCamera theCamera = camera;
         if (theCamera != null && !previewing) {
-            theCamera.getCamera().startPreview();
+            Camera cameraObject = theCamera.getCamera();
+//            预先分配好缓冲区,帧通过队列直接交给解码线程
+            frameQueue = new FrameQueue(cameraObject, PREVIEW_BUFFERS);
+            previewCallback.setFrameQueue(frameQueue);
+            cameraObject.setPreviewCallbackWithBuffer(previewCallback);
+            addPreviewBuffers(cameraObject);
+            cameraObject.startPreview();
             previewing = true;
 //            自动对焦
             autoFocusManager = new AutoFocusManager(context, theCamera.getCamera());
+            previewCallback.setAutoFocusManager(autoFocusManager);
+//            根据画面亮度调整曝光和闪光灯
+            ExposureController controller = new ExposureController(context, this,
+                    theCamera.getCamera().getParameters(), configManager.getTorchState(theCamera.getCamera()));
+            exposureController = controller.isActive() ? controller : null;
+//            目标太小的时候自动放大
+            ZoomController zoom = new ZoomController(this, theCamera.getCamera().getParameters());
+            zoomController = zoom.isActive() ? zoom : null;
         }
     }
 
@@ -191,17 +221,39 @@ public final class CameraManager {
      * Tells the camera to stop drawing preview frames.
      */
     public synchronized void stopPreview() {
+        exposureController = null;
+        if (zoomController != null) {
+            zoomController.reset();
+            zoomController = null;
+        }
         if (autoFocusManager != null) {
             autoFocusManager.stop();
             autoFocusManager = null;
+            previewCallback.setAutoFocusManager(null);
         }
         if (camera != null && previewing) {
+            camera.getCamera().setPreviewCallbackWithBuffer(null);
             camera.getCamera().stopPreview();
-            previewCallback.setHandler(null, 0);
+            previewCallback.setFrameQueue(null);
+            frameQueue.close();
+            frameQueue = null;
             previewing = false;
         }
     }
 
+    private void addPreviewBuffers(Camera cameraObject) {
+        Camera.Parameters parameters = cameraObject.getParameters();
+        Camera.Size previewSize = parameters.getPreviewSize();
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(parameters.getPreviewFormat());
+        if (bitsPerPixel <= 0) {
+            bitsPerPixel = 12; // NV21
+        }
+        int bufferSize = previewSize.width * previewSize.height * bitsPerPixel / 8;
+        for (int i = 0; i < PREVIEW_BUFFERS; i++) {
+            cameraObject.addCallbackBuffer(new byte[bufferSize]);
+        }
+    }
+
     /**
      * Convenience method for {@link com.google.zxing.client.android.CaptureActivity}
      *
@@ -221,33 +273,101 @@ public final class CameraManager {
                 autoFocusManager = new AutoFocusManager(context, theCamera.getCamera());
                 autoFocusManager.start();
             }
+            previewCallback.setAutoFocusManager(autoFocusManager);
         }
     }
 
     /**
-     * A single preview frame will be returned to the handler supplied. The data will arrive as byte[]
-     * in the message.obj field, with width and height encoded as message.arg1 and message.arg2,
-     * respectively.
+     * Lets auto focus react to what the decoder saw in a frame.
      * <p>
-     * 一个预览框架将返回给提供的处理程序。数据将以字节[]的形式到达message.obj字段，宽度和高度分别编码为message.arg1和message.arg2
+     * 解码线程报告每一帧的清晰度和是否差一点就解出来,用来决定是否需要重新对焦.
      *
-     * @param handler The handler to send the message to.
-     * @param what    The what field of the message to be sent.
+     * @param sharpness see {@link FrameMetrics#sharpness(byte[], int, Rect)}
+     * @param nearMiss  {@code true} if result points were found but nothing decoded
      */
-    public synchronized void requestPreviewFrame(Handler handler, int what) {
+    public synchronized void reportFrameQuality(float sharpness, boolean nearMiss) {
+        if (autoFocusManager != null) {
+            autoFocusManager.onFrameSharpness(sharpness);
+            if (nearMiss) {
+                autoFocusManager.onNearMiss();
+            }
+        }
+    }
 
+    /**
+     * Lets exposure and torch follow the brightness of the framing rect. Called on the decode thread.
+     *
+     * @param data  YUV preview frame
+     * @param width width of the preview frame
+     * @param rect  framing rect in preview coordinates
+     */
+    public void reportFrameLuminance(byte[] data, int width, Rect rect) {
+        ExposureController controller;
+        synchronized (this) {
+            controller = exposureController;
+        }
+        if (controller != null) {
+            controller.onFrame(data, width, rect);
+        }
+    }
+
+    /**
+     * Lets zoom follow the size of the candidate code. Called on the decode thread.
+     *
+     * @param spread  extent of the frame's result points as a fraction of the framing rect, or 0 if
+     *                there were fewer than two
+     * @param decoded {@code true} if the frame decoded
+     */
+    public void reportResultPointSpread(float spread, boolean decoded) {
+        ZoomController controller;
+        synchronized (this) {
+            controller = zoomController;
+        }
+        if (controller != null) {
+            controller.onFrame(spread, decoded);
+        }
+    }
+
+    synchronized int setZoom(int zoom) {
         OpenCamera theCamera = camera;
+        if (theCamera == null) {
+            return zoom;
+        }
+        return configManager.setZoom(theCamera.getCamera(), zoom);
+    }
 
-        if (theCamera != null && previewing) {  //在此之前已经开始了对焦写值:previewing = true;
+    synchronized int getExposureCompensation() {
+        OpenCamera theCamera = camera;
+        return theCamera == null ? 0 : configManager.getExposureCompensation(theCamera.getCamera());
+    }
 
-            //给其是指处理消息的handler,回调回来的帧画面给相应的关系人处理
-            previewCallback.setHandler(handler, what);
+    synchronized int setExposureCompensation(int compensationSteps) {
+        OpenCamera theCamera = camera;
+        if (theCamera == null) {
+            return compensationSteps;
+        }
+        return configManager.setExposureCompensation(theCamera.getCamera(), compensationSteps);
+    }
 
-            //给相机设置一个previewCallback,预览回调,不然你怎么拿的出来相机的回调啊.
-            theCamera.getCamera().setOneShotPreviewCallback(previewCallback);
+    /**
+     * Preview frames will be handed to the decode thread through {@link #getFrameQueue()} until it pauses
+     * the queue, typically after a successful decode. Frames captured before this call are skipped.
+     * <p>
+     * 开始(或者在解码成功之后重新开始)把预览帧交给解码线程
+     */
+    public synchronized void requestPreviewFrames() {
+        if (camera != null && previewing) {
+            frameQueue.resume();
         }
     }
 
+    /**
+     * @return the queue feeding preview frames to the decode thread, or {@code null} if not previewing
+     */
+    public synchronized FrameQueue getFrameQueue() {
+        return frameQueue;
+    }
+
     /**
      * Calculates the framing rect which the UI should draw to show the user where to place the
      * barcode. This target helps with alignment as well as forces the user to hold the device
@@ -270,15 +390,45 @@ public final class CameraManager {
 
             int width = findDesiredDimensionInRange(screenResolution.x, MIN_FRAME_WIDTH, MAX_FRAME_WIDTH);
             int height = findDesiredDimensionInRange(screenResolution.y, MIN_FRAME_HEIGHT, MAX_FRAME_HEIGHT);
+            switch (framingShape) {
+                case STRIP:
+                    // 一维码只需要横向的一条就够了
+                    height = Math.min(height, Math.max(MIN_STRIP_HEIGHT, width / 3));
+                    break;
+                case SQUARE:
+                    width = Math.min(width, height);
+                    height = width;
+                    break;
+                default:
+                    break;
+            }
 
             int leftOffset = (screenResolution.x - width) / 2;
             int topOffset = (screenResolution.y - height) / 2;
             framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
-            Log.d(TAG, "Calculated framing rect: " + framingRect);
+            Log.d(TAG, "Calculated " + framingShape + " framing rect: " + framingRect);
         }
         return framingRect;
     }
 
+    /**
+     * Sets the shape of the framing rect computed by {@link #getFramingRect()}, unless a framing rect was
+     * given explicitly with {@link #setManualFramingRect(int, int)}.
+     * <p>
+     * 根据要解码的格式设置扫描框的形状,解码的像素也随之减少
+     *
+     * @param shape shape suited to the formats being decoded
+     */
+    public synchronized void setFramingShape(FramingShape shape) {
+        if (shape != framingShape) {
+            framingShape = shape;
+            if (!manualFramingRect) {
+                framingRect = null;
+                framingRectInPreview = null;
+            }
+        }
+    }
+
     private static int findDesiredDimensionInRange(int resolution, int hardMin, int hardMax) {
         int dim = 5 * resolution / 8; // Target 5/8 of each dimension
         if (dim < hardMin) {
@@ -316,6 +466,7 @@ public final class CameraManager {
             rect.top = rect.top * cameraResolution.y / screenResolution.y;
             rect.bottom = rect.bottom * cameraResolution.y / screenResolution.y;
             framingRectInPreview = rect;
+            Log.d(TAG, "Decoding " + rect.width() * rect.height() + " pixels per frame");
         }
         return framingRectInPreview;
     }
@@ -354,6 +505,7 @@ public final class CameraManager {
             framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
             Log.d(TAG, "Calculated manual framing rect: " + framingRect);
             framingRectInPreview = null;
+            manualFramingRect = true;
         } else {
             requestedFramingRectWidth = width;
             requestedFramingRectHeight = height;
@@ -376,6 +528,16 @@ public final class CameraManager {
         if (rect == null) {
             return null;
         }
+        return buildLuminanceSource(data, width, height, rect);
+    }
+
+    /**
+     * Like {@link #buildLuminanceSource(byte[], int, int)} but crops to the given region of the preview
+     * frame instead of the framing rect.
+     *
+     * @param rect region to decode, in preview coordinates
+     */
+    public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height, Rect rect) {
         // Go ahead and assume it's YUV rather than die.
         return new PlanarYUVLuminanceSource(data, width, height, rect.left, rect.top,
                 rect.width(), rect.height(), false);
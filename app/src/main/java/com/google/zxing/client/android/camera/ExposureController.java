@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.google.zxing.client.android.PreferencesActivity;
+
+/**
+ * Adjusts exposure compensation and the torch from the luminance of the framing rect, using frames the
+ * decoder already has. Exposure is raised one step at a time while frames are dark and the torch only
+ * comes on once exposure is maxed out. Both directions need several agreeing frames and there is a wide
+ * dead band between the "too dark" and "too bright" levels, so the torch does not flap. Glare, e.g. the torch
+ * reflecting off a glossy label, only lowers exposure: the torch goes off on the mean luminance alone, since
+ * glare under a torch turned on in a dark scene would otherwise switch it off and on again every few seconds.
+ * <p>
+ * 根据扫描框内的亮度直方图调整曝光补偿和闪光灯,带滞后和限频,避免闪光灯来回开关.
+ */
+@SuppressWarnings("deprecation") // camera APIs
+final class ExposureController {
+
+    private static final String TAG = ExposureController.class.getSimpleName();
+
+    private static final int TOO_DARK_LUMINANCE = 70;
+    private static final int TOO_BRIGHT_LUMINANCE = 170;
+    /** Torch goes on below this only once exposure compensation is at its maximum. */
+    private static final int TORCH_ON_LUMINANCE = 50;
+    /** With the torch on, the scene has to be this bright before it goes off again. */
+    private static final int TORCH_OFF_LUMINANCE = 200;
+    /**
+     * Fraction of samples in the top bucket above which the frame counts as washed out by glare. Glare steps
+     * exposure down but never turns the torch off.
+     */
+    private static final float CLIPPED_FRACTION = 0.2f;
+    private static final int STABLE_FRAMES = 5;
+    private static final long MIN_EXPOSURE_INTERVAL_MS = 1000L;
+    /** {@link CameraManager#setTorch(boolean)} restarts auto focus, so change it rarely. */
+    private static final long MIN_TORCH_INTERVAL_MS = 5000L;
+
+    private final CameraManager cameraManager;
+    private final boolean controlExposure;
+    private final boolean controlTorch;
+    private final int minExposure;
+    private final int maxExposure;
+    private final int[] histogram = new int[FrameMetrics.LUMINANCE_BUCKETS];
+    private int exposure;
+    private boolean torchOn;
+    private int darkFrames;
+    private int brightFrames;
+    private long lastExposureChange;
+    private long lastTorchChange;
+
+    ExposureController(Context context, CameraManager cameraManager, Camera.Parameters parameters,
+                       boolean torchOn) {
+        this.cameraManager = cameraManager;
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        minExposure = parameters.getMinExposureCompensation();
+        maxExposure = parameters.getMaxExposureCompensation();
+        boolean exposureSupported =
+                (minExposure != 0 || maxExposure != 0) && parameters.getExposureCompensationStep() > 0.0f;
+        controlExposure = exposureSupported && !prefs.getBoolean(PreferencesActivity.KEY_DISABLE_EXPOSURE, true);
+        controlTorch = FrontLightMode.readPref(prefs) == FrontLightMode.AUTO &&
+                parameters.getSupportedFlashModes() != null;
+        exposure = parameters.getExposureCompensation();
+        this.torchOn = torchOn;
+        Log.i(TAG, "Control exposure? " + controlExposure + "; control torch? " + controlTorch);
+    }
+
+    boolean isActive() {
+        return controlExposure || controlTorch;
+    }
+
+    /**
+     * Called on the decode thread for every frame.
+     *
+     * @param data      YUV preview frame
+     * @param dataWidth width of the preview frame
+     * @param rect      framing rect in preview coordinates
+     */
+    void onFrame(byte[] data, int dataWidth, Rect rect) {
+        int count = FrameMetrics.luminanceHistogram(data, dataWidth, rect, histogram);
+        if (count == 0) {
+            return;
+        }
+        long sum = 0L;
+        int bucketWidth = 256 / FrameMetrics.LUMINANCE_BUCKETS;
+        for (int i = 0; i < histogram.length; i++) {
+            sum += (long) histogram[i] * (i * bucketWidth + bucketWidth / 2);
+        }
+        int mean = (int) (sum / count);
+        boolean clipped = histogram[histogram.length - 1] > count * CLIPPED_FRACTION;
+
+        if (mean < TOO_DARK_LUMINANCE) {
+            darkFrames++;
+            brightFrames = 0;
+        } else if (mean > TOO_BRIGHT_LUMINANCE || clipped) {
+            brightFrames++;
+            darkFrames = 0;
+        } else {
+            darkFrames = 0;
+            brightFrames = 0;
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (darkFrames >= STABLE_FRAMES) {
+            if (controlExposure && exposure < maxExposure) {
+                if (now - lastExposureChange >= MIN_EXPOSURE_INTERVAL_MS) {
+                    setExposure(exposure + 1, now);
+                }
+            } else if (controlTorch && !torchOn && mean < TORCH_ON_LUMINANCE &&
+                    now - lastTorchChange >= MIN_TORCH_INTERVAL_MS) {
+                setTorch(true, now);
+            }
+        } else if (brightFrames >= STABLE_FRAMES) {
+            if (controlTorch && torchOn && mean > TORCH_OFF_LUMINANCE) {
+                if (now - lastTorchChange >= MIN_TORCH_INTERVAL_MS) {
+                    setTorch(false, now);
+                }
+            } else if (controlExposure && exposure > minExposure &&
+                    now - lastExposureChange >= MIN_EXPOSURE_INTERVAL_MS) {
+                setExposure(exposure - 1, now);
+            }
+        }
+    }
+
+    private void setExposure(int newExposure, long now) {
+        Log.i(TAG, "Frames too " + (newExposure > exposure ? "dark" : "bright") +
+                "; exposure compensation " + exposure + " -> " + newExposure);
+        exposure = cameraManager.setExposureCompensation(newExposure);
+        lastExposureChange = now;
+        darkFrames = 0;
+        brightFrames = 0;
+    }
+
+    private void setTorch(boolean on, long now) {
+        Log.i(TAG, "Turning torch " + (on ? "on" : "off") + " from frame luminance");
+        cameraManager.setTorch(on);
+        torchOn = on;
+        // Turning the torch on or off may reset exposure compensation
+        exposure = cameraManager.getExposureCompensation();
+        lastTorchChange = now;
+        lastExposureChange = now;
+        darkFrames = 0;
+        brightFrames = 0;
+    }
+
+}
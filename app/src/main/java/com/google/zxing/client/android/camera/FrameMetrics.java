@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.graphics.Rect;
+
+/**
+ * Cheap statistics over the luminance (Y) plane of a preview frame. They sample a sparse grid inside
+ * a rectangle so that they cost a small fraction of a decode.
+ * <p>
+ * 对预览帧的亮度数据做一些廉价的统计,只在矩形内稀疏采样.
+ */
+public final class FrameMetrics {
+
+    private static final int SAMPLE_STEP = 4;
+
+    /** Number of buckets filled by {@link #luminanceHistogram(byte[], int, Rect, int[])}. */
+    public static final int LUMINANCE_BUCKETS = 32;
+    private static final int LUMINANCE_SHIFT = 3; // 256 >> 3 == LUMINANCE_BUCKETS
+
+    private FrameMetrics() {
+    }
+
+    /**
+     * @param data      YUV preview frame; only the leading Y plane is read
+     * @param dataWidth width of the preview frame
+     * @param rect      area to measure, in preview coordinates
+     * @return mean absolute difference between neighbouring pixels, higher meaning sharper
+     */
+    public static float sharpness(byte[] data, int dataWidth, Rect rect) {
+        long sum = 0L;
+        int count = 0;
+        for (int y = rect.top; y < rect.bottom - 1; y += SAMPLE_STEP) {
+            int offset = y * dataWidth;
+            for (int x = rect.left; x < rect.right - 1; x += SAMPLE_STEP) {
+                int center = data[offset + x] & 0xff;
+                sum += Math.abs(center - (data[offset + x + 1] & 0xff));
+                sum += Math.abs(center - (data[offset + dataWidth + x] & 0xff));
+                count++;
+            }
+        }
+        return count == 0 ? 0.0f : sum / (2.0f * count);
+    }
+
+    /**
+     * @param minDifference smallest difference between neighbouring pixels that counts as an edge
+     * @return fraction of sampled pixels that differ from their right or lower neighbour by at least
+     * {@code minDifference}
+     */
+    public static float edgeDensity(byte[] data, int dataWidth, Rect rect, int minDifference) {
+        int edges = 0;
+        int count = 0;
+        for (int y = rect.top; y < rect.bottom - 1; y += SAMPLE_STEP) {
+            int offset = y * dataWidth;
+            for (int x = rect.left; x < rect.right - 1; x += SAMPLE_STEP) {
+                int center = data[offset + x] & 0xff;
+                if (Math.abs(center - (data[offset + x + 1] & 0xff)) >= minDifference ||
+                        Math.abs(center - (data[offset + dataWidth + x] & 0xff)) >= minDifference) {
+                    edges++;
+                }
+                count++;
+            }
+        }
+        return count == 0 ? 0.0f : (float) edges / count;
+    }
+
+    /**
+     * @param histogram receives {@link #LUMINANCE_BUCKETS} counts; it is cleared first
+     * @return number of pixels sampled
+     */
+    public static int luminanceHistogram(byte[] data, int dataWidth, Rect rect, int[] histogram) {
+        for (int i = 0; i < LUMINANCE_BUCKETS; i++) {
+            histogram[i] = 0;
+        }
+        int count = 0;
+        for (int y = rect.top; y < rect.bottom; y += SAMPLE_STEP) {
+            int offset = y * dataWidth;
+            for (int x = rect.left; x < rect.right; x += SAMPLE_STEP) {
+                histogram[(data[offset + x] & 0xff) >> LUMINANCE_SHIFT]++;
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.hardware.Camera;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands preview frames from the camera callback thread to the decode thread without locks or per frame
+ * allocation. There is one producer and one consumer; the ring of slots and the preview buffers are
+ * allocated once per preview session. The consumer always gets the newest frame and older ones go straight
+ * back to the camera. While decoding is paused, buffers pile up here and the camera simply stops
+ * delivering frames until decoding resumes.
+ * <p>
+ * 相机回调线程和解码线程之间的无锁单生产者单消费者队列,槽位和预览缓冲区预先分配,解码线程总是拿最新的一帧.
+ */
+@SuppressWarnings("deprecation") // camera APIs
+public final class FrameQueue {
+
+    private static final String TAG = FrameQueue.class.getSimpleName();
+
+    /**
+     * A preview frame in the queue. Valid only until passed to {@link #release(Frame)}.
+     */
+    public static final class Frame {
+
+        private byte[] data;
+        private int width;
+        private int height;
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+
+    private final Frame[] slots;
+    private final int mask;
+    private volatile Camera camera;
+    /** Index of the oldest frame not yet released; written by the consumer only. */
+    private volatile long head;
+    /** Index of the next frame to add; written by the producer only. */
+    private volatile long tail;
+    /** Frames before this index were captured before decoding last resumed. */
+    private volatile long resumedAt;
+    private volatile boolean paused = true;
+    private volatile Thread waitingConsumer;
+
+    /**
+     * @param camera   camera the preview buffers are returned to
+     * @param capacity at least the number of preview buffers, so that the producer never finds it full
+     */
+    FrameQueue(Camera camera, int capacity) {
+        this.camera = camera;
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        slots = new Frame[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Frame();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Producer side. If the frame cannot be queued it goes back to the camera at once.
+     */
+    void offer(byte[] data, int width, int height) {
+        long t = tail;
+        if (t - head >= slots.length) {
+            Log.w(TAG, "Frame queue full; dropping frame");
+            recycle(data);
+            return;
+        }
+        Frame frame = slots[(int) (t & mask)];
+        frame.data = data;
+        frame.width = width;
+        frame.height = height;
+        tail = t + 1;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Consumer side. Waits up to the given time for a frame captured since decoding last resumed. Older
+     * frames are returned to the camera on the way.
+     *
+     * @return the newest frame, which must be passed to {@link #release(Frame)}, or {@code null} if none
+     * came in time or decoding is paused
+     */
+    public Frame take(long timeoutMs) {
+        Frame frame = pollNewest();
+        if (frame == null) {
+            waitingConsumer = Thread.currentThread();
+            // Checked again after publishing the waiting thread, so that a frame offered meanwhile is not missed
+            frame = pollNewest();
+            if (frame == null) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+                frame = pollNewest();
+            }
+            waitingConsumer = null;
+        }
+        return frame;
+    }
+
+    private Frame pollNewest() {
+        if (paused) {
+            return null;
+        }
+        long h = head;
+        long t = tail;
+        long firstFresh = Math.max(resumedAt, t - 1);
+        while (h < t && h < firstFresh) {
+            Frame stale = slots[(int) (h & mask)];
+            recycle(stale.data);
+            stale.data = null;
+            h++;
+        }
+        head = h;
+        return h < t ? slots[(int) (h & mask)] : null;
+    }
+
+    /**
+     * Consumer side. Gives the frame's buffer back to the camera.
+     */
+    public void release(Frame frame) {
+        recycle(frame.data);
+        frame.data = null;
+        head = head + 1;
+    }
+
+    /**
+     * Stops handing out frames, typically after a successful decode.
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    /**
+     * Starts handing out frames again, skipping any captured while paused.
+     */
+    void resume() {
+        resumedAt = tail;
+        paused = false;
+        wakeUp();
+    }
+
+    /**
+     * Pauses for good and stops returning buffers to the camera, which is going away.
+     */
+    void close() {
+        camera = null;
+        paused = true;
+        wakeUp();
+    }
+
+    /**
+     * Makes a waiting {@link #take(long)} return early.
+     */
+    public void wakeUp() {
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void recycle(byte[] data) {
+        Camera theCamera = camera;
+        if (theCamera != null && data != null) {
+            try {
+                theCamera.addCallbackBuffer(data);
+            } catch (RuntimeException re) {
+                // Camera was released in the meantime
+                Log.w(TAG, "Could not return preview buffer", re);
+            }
+        }
+    }
+
+}
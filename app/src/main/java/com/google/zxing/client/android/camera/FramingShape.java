@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+/**
+ * Enumerates the shapes of framing rect, chosen from the formats being decoded.
+ */
+public enum FramingShape {
+
+  /** 5/8 of each screen dimension, for a mix of one and two dimensional formats. */
+  DEFAULT,
+  /** A wide, thin strip holding a one dimensional code. 只扫一维码的时候用细长条*/
+  STRIP,
+  /** A square holding a two dimensional code. 只扫二维码的时候用正方形*/
+  SQUARE
+
+}
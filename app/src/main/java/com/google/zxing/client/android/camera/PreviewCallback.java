@@ -18,51 +18,66 @@ package com.google.zxing.client.android.camera;
 
 import android.graphics.Point;
 import android.hardware.Camera;
-import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
 
+/**
+ * Receives preview frames into the preallocated callback buffers and passes them to the decode thread
+ * through a {@link FrameQueue}.
+ * <p>
+ * 相机把帧写进预先分配的缓冲区,这里直接放进队列交给解码线程,不再经过 Handler 消息.
+ */
 @SuppressWarnings("deprecation") // camera APIs
 final class PreviewCallback implements Camera.PreviewCallback {
 
     private static final String TAG = PreviewCallback.class.getSimpleName();
 
+    /** Stop waiting for focus after this many frames, in case the sweep never ends. */
+    private static final int MAX_FRAMES_SKIPPED_WHILE_FOCUSING = 10;
+
     private final CameraConfigurationManager configManager;
-    private Handler previewHandler;
-    private int priviewWhat;
+    private FrameQueue frameQueue;
+    private AutoFocusManager autoFocusManager;
+    private int framesSkippedWhileFocusing;
 
     PreviewCallback(CameraConfigurationManager configManager) {
         this.configManager = configManager;
     }
 
-    void setHandler(Handler previewHandler, int previewWhat) {
-        this.previewHandler = previewHandler;
-        this.priviewWhat = previewWhat;
+    void setFrameQueue(FrameQueue frameQueue) {
+        this.frameQueue = frameQueue;
     }
 
-    /*----------------系统给回来的东西-----------------*/
-    long lastPreviewbackTime;
+    /**
+     * 对焦的状态,对焦过程中的帧基本是模糊的,没必要解码.
+     */
+    void setAutoFocusManager(AutoFocusManager autoFocusManager) {
+        this.autoFocusManager = autoFocusManager;
+    }
 
+    /*----------------系统给回来的东西-----------------*/
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
 
-        Log.i(TAG, "onPreviewFrame: 系统回调回来的帧数据" +
-                (System.currentTimeMillis() - lastPreviewbackTime));
-        lastPreviewbackTime = System.currentTimeMillis();
-
         Point cameraResolution = configManager.getCameraResolution();
 
-        Handler thePreviewHandler = previewHandler;//消息发送 ,实际发送到 DecodeHandler中handleMessage进行了处理.
+        FrameQueue theFrameQueue = frameQueue;//放进队列,解码线程从队列里取
+
+        if (cameraResolution != null && theFrameQueue != null) {
 
-        if (cameraResolution != null && thePreviewHandler != null) {
+            AutoFocusManager theAutoFocusManager = autoFocusManager;
+            if (theAutoFocusManager != null && theAutoFocusManager.isFocusing() &&
+                    framesSkippedWhileFocusing < MAX_FRAMES_SKIPPED_WHILE_FOCUSING) {
+                // Captured mid-sweep; hand the buffer straight back instead of spending a decode on it
+                framesSkippedWhileFocusing++;
+                camera.addCallbackBuffer(data);
+                return;
+            }
+            framesSkippedWhileFocusing = 0;
 
-            Message message = thePreviewHandler.obtainMessage(priviewWhat, cameraResolution.x,
-                    cameraResolution.y, data);
-            message.sendToTarget();
-            previewHandler = null;
+            theFrameQueue.offer(data, cameraResolution.x, cameraResolution.y);
 
         } else {
-            Log.d(TAG, "Got preview callback, but no handler or resolution available");
+            Log.d(TAG, "Got preview callback, but no frame queue or resolution available");
         }
     }
 
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.android.camera.open.OpenCamera;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.oned.EAN13Writer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Measures, on this device, how many synthetic barcodes per second can be decoded at each candidate
+ * preview size, and remembers the winner for later sessions. The largest preview size is often not the
+ * best one on slower devices: every frame costs more to decode without reading typical labels any better.
+ * <p>
+ * 在本机上用合成的条码测量每个候选预览尺寸的解码速度和成功率,选出每秒成功解码最多的尺寸并保存下来.
+ */
+final class PreviewSizeCalibrator {
+
+    private static final String TAG = PreviewSizeCalibrator.class.getSimpleName();
+
+    private static final String PREFS_NAME = "preview_size_calibration";
+
+    private static final Pattern X = Pattern.compile("x");
+
+    private static final String QR_CONTENTS = "https://github.com/zxing/zxing";
+    private static final String EAN_CONTENTS = "5901234123457";
+
+    /** Width of the synthetic code as a fraction of the framing rect: small, typical and large labels. */
+    private static final float[] TARGET_FRACTIONS = {0.15f, 0.25f, 0.4f};
+    private static final int ROUNDS = 3;
+    private static final int LIGHT = 200;
+    private static final int DARK = 40;
+    private static final int NOISE = 24;
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    private final Context context;
+
+    PreviewSizeCalibrator(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @return the preview size chosen by an earlier calibration, or {@code null} if there was none
+     */
+    Point loadProfile(OpenCamera camera, Point screenResolution) {
+        String value = getPrefs().getString(buildKey(camera, screenResolution), null);
+        if (value == null) {
+            return null;
+        }
+        String[] dimensions = X.split(value);
+        try {
+            return new Point(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            Log.w(TAG, "Bad calibration profile: " + value);
+            return null;
+        }
+    }
+
+    /**
+     * Runs the calibration on a low priority background thread. The result is only used from the next
+     * time the camera is opened, so the current session is not slowed down.
+     */
+    void calibrateInBackground(OpenCamera camera, Point screenResolution, final List<Point> candidates) {
+        if (candidates.size() < 2 || !running.compareAndSet(false, true)) {
+            return;
+        }
+        final String key = buildKey(camera, screenResolution);
+        Thread calibrationThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    Point best = calibrate(candidates);
+                    if (best != null) {
+                        Log.i(TAG, "Calibrated preview size: " + best);
+                        getPrefs().edit().putString(key, best.x + "x" + best.y).apply();
+                        // Cached camera parameters still hold the old preview size
+                        new CameraConfigurationCache(context).clearAll();
+                    }
+                } finally {
+                    running.set(false);
+                }
+            }
+        }, TAG);
+        calibrationThread.start();
+    }
+
+    /**
+     * @return the candidate with the most successful decodes per second, or {@code null} if nothing decoded
+     */
+    static Point calibrate(List<Point> candidates) {
+        List<BitMatrix> targets = buildTargets();
+        if (targets.isEmpty()) {
+            return null;
+        }
+        MultiFormatReader reader = new MultiFormatReader();
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(BarcodeFormat.QR_CODE, BarcodeFormat.EAN_13));
+        reader.setHints(hints);
+
+        // Warm up so that the first candidate does not pay for class loading and JIT
+        measure(reader, candidates.get(0), targets);
+
+        Point best = null;
+        double bestRate = 0.0;
+        for (Point candidate : candidates) {
+            double rate = measure(reader, candidate, targets);
+            Log.i(TAG, "Preview size " + candidate.x + 'x' + candidate.y + ": " + rate + " decodes/s");
+            if (rate > bestRate) {
+                bestRate = rate;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static double measure(MultiFormatReader reader, Point size, List<BitMatrix> targets) {
+        int width = size.x;
+        int height = size.y;
+        int cropWidth = 5 * width / 8;
+        int cropHeight = 5 * height / 8;
+        byte[] frame = new byte[width * height];
+        Random random = new Random(width * 31L + height);
+
+        int successes = 0;
+        long nanos = 0L;
+        for (BitMatrix target : targets) {
+            for (float fraction : TARGET_FRACTIONS) {
+                render(frame, width, height, target, Math.max(1, (int) (cropWidth * fraction)), random);
+                PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(frame, width, height,
+                        (width - cropWidth) / 2, (height - cropHeight) / 2, cropWidth, cropHeight, false);
+                for (int round = 0; round < ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    try {
+                        Result result = reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+                        if (result != null) {
+                            successes++;
+                        }
+                    } catch (ReaderException re) {
+                        // continue
+                    } finally {
+                        reader.reset();
+                    }
+                    nanos += System.nanoTime() - start;
+                }
+            }
+        }
+        return nanos == 0L ? 0.0 : successes * 1.0e9 / nanos;
+    }
+
+    /**
+     * Draws the target, nearest-neighbour scaled to {@code codeWidth} pixels, centered in a noisy frame.
+     * One dimensional targets have a single row and are stretched vertically.
+     */
+    private static void render(byte[] frame, int width, int height, BitMatrix target, int codeWidth,
+                               Random random) {
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (LIGHT + random.nextInt(NOISE) - NOISE / 2);
+        }
+        boolean linear = target.getHeight() == 1;
+        int codeHeight = Math.min(height, linear ? codeWidth * 2 / 5 : codeWidth);
+        codeWidth = Math.min(width, codeWidth);
+        int left = (width - codeWidth) / 2;
+        int top = (height - codeHeight) / 2;
+        int matrixWidth = target.getWidth();
+        int matrixHeight = target.getHeight();
+        for (int y = 0; y < codeHeight; y++) {
+            int my = linear ? 0 : y * matrixHeight / codeHeight;
+            int offset = (top + y) * width + left;
+            for (int x = 0; x < codeWidth; x++) {
+                if (target.get(x * matrixWidth / codeWidth, my)) {
+                    frame[offset + x] = (byte) (DARK + random.nextInt(NOISE) - NOISE / 2);
+                }
+            }
+        }
+    }
+
+    private static List<BitMatrix> buildTargets() {
+        List<BitMatrix> targets = new ArrayList<>(2);
+        try {
+            targets.add(new QRCodeWriter().encode(QR_CONTENTS, BarcodeFormat.QR_CODE, 0, 0));
+            targets.add(new EAN13Writer().encode(EAN_CONTENTS, BarcodeFormat.EAN_13, 0, 0));
+        } catch (WriterException we) {
+            Log.w(TAG, we);
+        }
+        return targets;
+    }
+
+    private SharedPreferences getPrefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static String buildKey(OpenCamera camera, Point screenResolution) {
+        return camera.getIndex() + "|" + Build.FINGERPRINT + '|' + screenResolution.x + 'x' + screenResolution.y;
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.hardware.Camera;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Zooms in step by step while the result points of a candidate code cover only a small part of the
+ * framing rect, so that distant labels become big enough to decode. Zoom goes back to where it started
+ * after a successful decode, or once nothing has been seen for a while. Read rates with and without zoom
+ * are logged so the effect can be judged.
+ * <p>
+ * 识别到的点只占扫描框很小一部分时逐级放大,解码成功或者目标丢失后恢复原来的缩放.
+ */
+@SuppressWarnings("deprecation") // camera APIs
+final class ZoomController {
+
+    private static final String TAG = ZoomController.class.getSimpleName();
+
+    /** A candidate spanning less than this fraction of the framing rect is considered too small. */
+    private static final float SMALL_CODE_FRACTION = 0.25f;
+    private static final int SMALL_FRAMES_BEFORE_ZOOM = 3;
+    /** Each step multiplies the zoom ratio by at least this much. */
+    private static final float ZOOM_STEP_RATIO = 1.25f;
+    /** Beyond this, hand shake makes things worse rather than better. */
+    private static final int MAX_ZOOM_RATIO = 400; // in units of 1/100, as in Camera.Parameters
+    private static final long MIN_ZOOM_INTERVAL_MS = 500L;
+    private static final int EMPTY_FRAMES_BEFORE_RESET = 30;
+
+    private final CameraManager cameraManager;
+    private final List<Integer> zoomRatios;
+    private final int baseZoom;
+    private int zoom;
+    private int smallFrames;
+    private int emptyFrames;
+    private long lastZoomChange;
+    private int zoomSteps;//本次放大了几级
+
+    // 放大和未放大时的解码统计
+    private int framesZoomed;
+    private int decodesZoomed;
+    private int framesUnzoomed;
+    private int decodesUnzoomed;
+
+    ZoomController(CameraManager cameraManager, Camera.Parameters parameters) {
+        this.cameraManager = cameraManager;
+        List<Integer> ratios = parameters.isZoomSupported() ? parameters.getZoomRatios() : null;
+        if (ratios != null && ratios.size() != parameters.getMaxZoom() + 1) {
+            Log.w(TAG, "Invalid zoom ratios: " + ratios);
+            ratios = null;
+        }
+        zoomRatios = ratios;
+        baseZoom = parameters.getZoom();
+        zoom = baseZoom;
+        Log.i(TAG, "Auto zoom supported? " + isActive());
+    }
+
+    boolean isActive() {
+        return zoomRatios != null && zoomRatios.size() > 1;
+    }
+
+    /**
+     * Called on the decode thread for every frame.
+     *
+     * @param spread  extent of the result points as a fraction of the framing rect, or 0 if there were
+     *                fewer than two
+     * @param decoded {@code true} if the frame decoded
+     */
+    void onFrame(float spread, boolean decoded) {
+        boolean zoomed = zoom != baseZoom;
+        if (zoomed) {
+            framesZoomed++;
+        } else {
+            framesUnzoomed++;
+        }
+
+        if (decoded) {
+            if (zoomed) {
+                decodesZoomed++;
+                Log.i(TAG, "Decoded at zoom " + zoomRatios.get(zoom) / 100.0f + " after " + zoomSteps + " steps");
+            } else {
+                decodesUnzoomed++;
+            }
+            Log.i(TAG, "Read rate zoomed " + decodesZoomed + '/' + framesZoomed +
+                    ", unzoomed " + decodesUnzoomed + '/' + framesUnzoomed);
+            reset();
+            return;
+        }
+
+        if (spread <= 0.0f) {
+            smallFrames = 0;
+            if (zoomed && ++emptyFrames >= EMPTY_FRAMES_BEFORE_RESET) {
+                Log.i(TAG, "Lost the candidate code; resetting zoom");
+                reset();
+            }
+            return;
+        }
+        emptyFrames = 0;
+
+        if (spread >= SMALL_CODE_FRACTION) {
+            smallFrames = 0;
+            return;
+        }
+        smallFrames++;
+        long now = SystemClock.elapsedRealtime();
+        if (smallFrames >= SMALL_FRAMES_BEFORE_ZOOM && now - lastZoomChange >= MIN_ZOOM_INTERVAL_MS) {
+            int next = nextZoom();
+            if (next != zoom) {
+                Log.i(TAG, "Candidate spans " + spread + " of the framing rect; zoom " +
+                        zoomRatios.get(zoom) / 100.0f + " -> " + zoomRatios.get(next) / 100.0f);
+                zoom = cameraManager.setZoom(next);
+                zoomSteps++;
+                lastZoomChange = now;
+            }
+            smallFrames = 0;
+        }
+    }
+
+    private int nextZoom() {
+        int current = zoomRatios.get(zoom);
+        float target = current * ZOOM_STEP_RATIO;
+        for (int i = zoom + 1; i < zoomRatios.size(); i++) {
+            int ratio = zoomRatios.get(i);
+            if (ratio > MAX_ZOOM_RATIO) {
+                break;
+            }
+            if (ratio >= target) {
+                return i;
+            }
+        }
+        return zoom;
+    }
+
+    /**
+     * Goes back to the zoom the preview started with.
+     */
+    void reset() {
+        if (zoom != baseZoom) {
+            zoom = cameraManager.setZoom(baseZoom);
+            lastZoomChange = SystemClock.elapsedRealtime();
+        }
+        zoomSteps = 0;
+        smallFrames = 0;
+        emptyFrames = 0;
+    }
+
+}
@@ -25,6 +25,7 @@ import com.google.zxing.client.android.Contents;
 import com.google.zxing.client.android.FinishListener;
 import com.google.zxing.client.android.Intents;
 import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.Utils.BitmapPool;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -59,6 +60,7 @@ public final class EncodeActivity extends Activity {
   private static final String USE_VCARD_KEY = "USE_VCARD";
 
   private QRCodeEncoder qrCodeEncoder;
+  private Bitmap shownBitmap;
 
   @Override
   public void onCreate(Bundle icicle) {
@@ -155,6 +157,8 @@ public final class EncodeActivity extends Activity {
       Log.w(TAG, "Couldn't access file " + barcodeFile + " due to " + ioe);
       showErrorMessage(R.string.msg_unmount_usb);
       return;
+    } finally {
+      BitmapPool.put(bitmap);
     }
 
     Intent intent = new Intent(Intent.ACTION_SEND, Uri.parse("mailto:"));
@@ -205,6 +209,9 @@ public final class EncodeActivity extends Activity {
 
       ImageView view = (ImageView) findViewById(R.id.image_view);
       view.setImageBitmap(bitmap);
+      // The previous barcode is no longer shown
+      BitmapPool.put(shownBitmap);
+      shownBitmap = bitmap;
 
       TextView contents = (TextView) findViewById(R.id.contents_text_view);
       if (intent.getBooleanExtra(Intents.Encode.SHOW_CONTENTS, true)) {
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.os.AsyncTask;
+
+/**
+ * Counts the history for the title of {@link HistoryActivity} off the UI thread.
+ */
+final class CountHistoryAsyncTask extends AsyncTask<Object,Object,Integer> {
+
+  private final HistoryActivity activity;
+  private final HistoryManager historyManager;
+
+  CountHistoryAsyncTask(HistoryActivity activity, HistoryManager historyManager) {
+    this.activity = activity;
+    this.historyManager = historyManager;
+  }
+
+  @Override
+  protected Integer doInBackground(Object... objects) {
+    return historyManager.countHistoryItems();
+  }
+
+  @Override
+  protected void onPostExecute(Integer count) {
+    activity.onHistoryCounted(count);
+  }
+
+}
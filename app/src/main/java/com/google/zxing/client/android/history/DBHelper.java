@@ -16,17 +16,30 @@
 
 package com.google.zxing.client.android.history;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.content.Context;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * @author Sean Owen
  */
 final class DBHelper extends SQLiteOpenHelper {
 
-  private static final int DB_VERSION = 5;
-  private static final String DB_NAME = "barcode_scanner_history.db";
+  private static final String TAG = DBHelper.class.getSimpleName();
+
+  private static final int DB_VERSION = 8;
+  /** Oldest version whose schema is known and can be migrated; anything older is recreated. */
+  private static final int FIRST_MIGRATABLE_VERSION = 5;
+  static final String DB_NAME = "barcode_scanner_history.db";
   static final String TABLE_NAME = "history";
   static final String ID_COL = "id";
   static final String TEXT_COL = "text";
@@ -34,11 +47,35 @@ final class DBHelper extends SQLiteOpenHelper {
   static final String DISPLAY_COL = "display";
   static final String TIMESTAMP_COL = "timestamp";
   static final String DETAILS_COL = "details";
+  /**
+   * {@link #hashText(String)} of the text, set only on the newest item with that text, so that a unique
+   * index on it finds that item and lets one INSERT OR REPLACE take its place.
+   */
+  static final String TEXT_HASH_COL = "text_hash";
+  static final String TIMESTAMP_INDEX = "history_timestamp";
+  static final String TEXT_INDEX = "history_text";
+  static final String TEXT_HASH_INDEX = "history_text_hash";
+  /** Full-text index over text, display and details, kept in step with the table by triggers. */
+  static final String FTS_TABLE_NAME = "history_fts";
+  private static final String FTS_COLUMNS = TEXT_COL + ", " + DISPLAY_COL + ", " + DETAILS_COL;
 
   DBHelper(Context context) {
     super(context, DB_NAME, null, DB_VERSION);
   }
 
+  /**
+   * Rows replaced by INSERT OR REPLACE only fire delete triggers, which keep the full-text index in step,
+   * with recursive triggers on.
+   */
+  @Override
+  public void onConfigure(SQLiteDatabase db) {
+    db.execSQL("PRAGMA recursive_triggers = ON");
+  }
+
+  /**
+   * Creates the table as it was in {@link #FIRST_MIGRATABLE_VERSION} and then runs every migration, so that
+   * new and upgraded databases always end up with the same schema.
+   */
   @Override
   public void onCreate(SQLiteDatabase sqLiteDatabase) {
     sqLiteDatabase.execSQL(
@@ -49,12 +86,127 @@ final class DBHelper extends SQLiteOpenHelper {
             DISPLAY_COL + " TEXT, " +
             TIMESTAMP_COL + " INTEGER, " +
             DETAILS_COL + " TEXT);");
+    migrate(sqLiteDatabase, FIRST_MIGRATABLE_VERSION);
   }
 
+  /**
+   * Runs in a transaction, so a failed migration leaves the database at the old version.
+   */
   @Override
   public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-    sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-    onCreate(sqLiteDatabase);
+    if (oldVersion < FIRST_MIGRATABLE_VERSION) {
+      sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+      onCreate(sqLiteDatabase);
+      return;
+    }
+    migrate(sqLiteDatabase, oldVersion);
+  }
+
+  /**
+   * Applies each step after {@code fromVersion} in turn, up to {@link #DB_VERSION}. Steps only add to the
+   * schema and never drop data. A new step gets its own case and a bump of {@link #DB_VERSION}.
+   */
+  private static void migrate(SQLiteDatabase db, int fromVersion) {
+    for (int version = fromVersion + 1; version <= DB_VERSION; version++) {
+      Log.i(TAG, "Migrating history database to version " + version);
+      switch (version) {
+        case 6:
+          // Listing, trimming and position lookups sort on timestamp; duplicate removal and details
+          // lookups filter on text
+          db.execSQL("CREATE INDEX IF NOT EXISTS " + TIMESTAMP_INDEX +
+                     " ON " + TABLE_NAME + " (" + TIMESTAMP_COL + ')');
+          db.execSQL("CREATE INDEX IF NOT EXISTS " + TEXT_INDEX +
+                     " ON " + TABLE_NAME + " (" + TEXT_COL + ')');
+          break;
+        case 7:
+          // External content table: the index refers to history rows by ID instead of holding copies. The
+          // simple tokenizer is the only one every supported SQLite version has.
+          db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + FTS_TABLE_NAME + " USING fts4(content=\"" +
+                     TABLE_NAME + "\", " + TEXT_COL + ", " + DISPLAY_COL + ", " + DETAILS_COL + ')');
+          // FTS4 reads the old values to remove from the content table, so removal happens before the change
+          db.execSQL("CREATE TRIGGER IF NOT EXISTS " + FTS_TABLE_NAME + "_before_delete BEFORE DELETE ON " +
+                     TABLE_NAME + " BEGIN " + deleteFromFts() + " END");
+          db.execSQL("CREATE TRIGGER IF NOT EXISTS " + FTS_TABLE_NAME + "_before_update BEFORE UPDATE ON " +
+                     TABLE_NAME + " BEGIN " + deleteFromFts() + " END");
+          db.execSQL("CREATE TRIGGER IF NOT EXISTS " + FTS_TABLE_NAME + "_after_update AFTER UPDATE ON " +
+                     TABLE_NAME + " BEGIN " + insertIntoFts() + " END");
+          db.execSQL("CREATE TRIGGER IF NOT EXISTS " + FTS_TABLE_NAME + "_after_insert AFTER INSERT ON " +
+                     TABLE_NAME + " BEGIN " + insertIntoFts() + " END");
+          // Index whatever history there already is
+          db.execSQL("INSERT INTO " + FTS_TABLE_NAME + '(' + FTS_TABLE_NAME + ") VALUES ('rebuild')");
+          break;
+        case 8:
+          // Moving the text hash from one item to another must not reindex either
+          db.execSQL("DROP TRIGGER IF EXISTS " + FTS_TABLE_NAME + "_before_update");
+          db.execSQL("DROP TRIGGER IF EXISTS " + FTS_TABLE_NAME + "_after_update");
+          db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_before_update BEFORE UPDATE OF " + FTS_COLUMNS +
+                     " ON " + TABLE_NAME + " BEGIN " + deleteFromFts() + " END");
+          db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_after_update AFTER UPDATE OF " + FTS_COLUMNS +
+                     " ON " + TABLE_NAME + " BEGIN " + insertIntoFts() + " END");
+          db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + TEXT_HASH_COL + " INTEGER");
+          hashNewestTexts(db);
+          db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " + TEXT_HASH_INDEX +
+                     " ON " + TABLE_NAME + " (" + TEXT_HASH_COL + ')');
+          // The text index stays: replacing a scan also removes older copies, which don't have the hash
+          break;
+        default:
+          throw new IllegalStateException("No migration to history database version " + version);
+      }
+    }
+  }
+
+  /**
+   * Sets the text hash on the newest item with each text.
+   */
+  private static void hashNewestTexts(SQLiteDatabase db) {
+    Set<Long> hashed = new HashSet<>();
+    SQLiteStatement update = db.compileStatement(
+        "UPDATE " + TABLE_NAME + " SET " + TEXT_HASH_COL + "=? WHERE " + ID_COL + "=?");
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] { ID_COL, TEXT_COL }, null, null, null, null,
+                                  TIMESTAMP_COL + " DESC, " + ID_COL + " DESC")) {
+      while (cursor.moveToNext()) {
+        String text = cursor.getString(1);
+        if (text == null) {
+          continue;
+        }
+        long hash = hashText(text);
+        if (hashed.add(hash)) {
+          update.bindLong(1, hash);
+          update.bindLong(2, cursor.getLong(0));
+          update.executeUpdateDelete();
+        }
+      }
+    } finally {
+      update.close();
+    }
+  }
+
+  /**
+   * @return the first 64 bits of the SHA-256 of the text; different texts practically never collide
+   */
+  static long hashText(String text) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException nsae) {
+      // Every Android version has SHA-256
+      throw new IllegalStateException(nsae);
+    }
+    byte[] bytes = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+    long hash = 0L;
+    for (int i = 0; i < 8; i++) {
+      hash = (hash << 8) | (bytes[i] & 0xFF);
+    }
+    return hash;
+  }
+
+  private static String deleteFromFts() {
+    return "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid=old." + ID_COL + ';';
+  }
+
+  private static String insertIntoFts() {
+    return "INSERT INTO " + FTS_TABLE_NAME + "(docid, " + TEXT_COL + ", " + DISPLAY_COL + ", " + DETAILS_COL +
+           ") VALUES (new." + ID_COL + ", new." + TEXT_COL + ", new." + DISPLAY_COL + ", new." + DETAILS_COL + ");";
   }
 
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.ProgressDialog;
+import android.content.ActivityNotFoundException;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Log;
+import com.google.zxing.client.android.Intents;
+import com.google.zxing.client.android.R;
+
+/**
+ * Writes the history to a file in the background, showing progress, then offers to send it.
+ * Cancelling the dialog stops the export and deletes the partial file.
+ * <p>
+ * 后台导出历史记录,显示进度,可以取消.
+ */
+final class ExportHistoryAsyncTask extends AsyncTask<Object,Integer,Uri>
+    implements HistoryManager.Progress {
+
+  private static final String TAG = ExportHistoryAsyncTask.class.getSimpleName();
+
+  private final Activity activity;
+  private final HistoryManager historyManager;
+  private final boolean gzip;
+  private ProgressDialog dialog;
+
+  ExportHistoryAsyncTask(Activity activity, HistoryManager historyManager, boolean gzip) {
+    this.activity = activity;
+    this.historyManager = historyManager;
+    this.gzip = gzip;
+  }
+
+  @Override
+  protected void onPreExecute() {
+    dialog = new ProgressDialog(activity);
+    dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+    dialog.setMessage(activity.getString(R.string.history_exporting));
+    dialog.setCancelable(true);
+    dialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+      @Override
+      public void onCancel(DialogInterface d) {
+        cancel(false);
+      }
+    });
+    dialog.show();
+  }
+
+  @Override
+  protected Uri doInBackground(Object... objects) {
+    return historyManager.exportHistory(gzip, this);
+  }
+
+  @Override
+  public void onProgress(int written, int total) {
+    publishProgress(written, total);
+  }
+
+  @Override
+  protected void onProgressUpdate(Integer... values) {
+    dialog.setMax(values[1]);
+    dialog.setProgress(values[0]);
+  }
+
+  @Override
+  protected void onCancelled(Uri historyFile) {
+    dialog.dismiss();
+  }
+
+  @Override
+  protected void onPostExecute(Uri historyFile) {
+    dialog.dismiss();
+    if (historyFile == null) {
+      AlertDialog.Builder builder = new AlertDialog.Builder(activity);
+      builder.setMessage(R.string.msg_unmount_usb);
+      builder.setPositiveButton(R.string.button_ok, null);
+      builder.show();
+      return;
+    }
+    Intent intent = new Intent(Intent.ACTION_SEND, Uri.parse("mailto:"));
+    intent.addFlags(Intents.FLAG_NEW_DOC);
+    String subject = activity.getResources().getString(R.string.history_email_title);
+    intent.putExtra(Intent.EXTRA_SUBJECT, subject);
+    intent.putExtra(Intent.EXTRA_TEXT, subject);
+    intent.putExtra(Intent.EXTRA_STREAM, historyFile);
+    intent.setType(gzip ? "application/gzip" : "text/csv");
+    try {
+      activity.startActivity(intent);
+    } catch (ActivityNotFoundException anfe) {
+      Log.w(TAG, anfe.toString());
+    }
+  }
+
+}
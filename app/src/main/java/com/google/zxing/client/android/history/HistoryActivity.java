@@ -22,20 +22,23 @@ import android.app.ListActivity;
 import android.content.ActivityNotFoundException;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Parcelable;
+import android.os.Handler;
+import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.ListView;
+import android.widget.SearchView;
 import com.google.zxing.client.android.CaptureActivity;
 import com.google.zxing.client.android.Intents;
+import com.google.zxing.client.android.PreferencesActivity;
 import com.google.zxing.client.android.R;
 
 /**
@@ -45,18 +48,43 @@ public final class HistoryActivity extends ListActivity {
 
   private static final String TAG = HistoryActivity.class.getSimpleName();
 
+  private static final int IMPORT_REQUEST_CODE = 0x0000cafe;
+  /** Typing pauses at least this long before the list is searched again. */
+  private static final long SEARCH_DELAY_MS = 250L;
+
   private HistoryManager historyManager;
-  private ArrayAdapter<HistoryItem> adapter;
+  private HistoryItemAdapter adapter;
   private CharSequence originalTitle;
+  private AsyncTask<?,?,?> backgroundTask;
+  private AsyncTask<?,?,?> countTask;
+  private final Handler searchHandler = new Handler();
+  private String pendingQuery;
+  private final Runnable searchRunnable = new Runnable() {
+    @Override
+    public void run() {
+      adapter.setQuery(pendingQuery);
+    }
+  };
   
   @Override
   protected void onCreate(Bundle icicle) {
     super.onCreate(icicle);
     this.historyManager = new HistoryManager(this);  
-    adapter = new HistoryItemAdapter(this);
+    adapter = new HistoryItemAdapter(this, historyManager);
     setListAdapter(adapter);
-    View listview = getListView();
+    ListView listview = getListView();
     registerForContextMenu(listview);
+    listview.setOnScrollListener(new AbsListView.OnScrollListener() {
+      @Override
+      public void onScrollStateChanged(AbsListView view, int scrollState) {
+        // only the position matters
+      }
+
+      @Override
+      public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        adapter.loadMoreIfNear(firstVisibleItem + visibleItemCount - 1);
+      }
+    });
     originalTitle = getTitle();
   }
 
@@ -66,23 +94,39 @@ public final class HistoryActivity extends ListActivity {
     reloadHistoryItems();
   }
 
-  private void reloadHistoryItems() {
-    Iterable<HistoryItem> items = historyManager.buildHistoryItems();
-    adapter.clear();
-    for (HistoryItem item : items) {
-      adapter.add(item);
+  @Override
+  protected void onPause() {
+    if (backgroundTask != null) {
+      backgroundTask.cancel(true);
+      backgroundTask = null;
     }
-    setTitle(originalTitle + " (" + adapter.getCount() + ')');
-    if (adapter.isEmpty()) {
-      adapter.add(new HistoryItem(null, null, null));
+    if (countTask != null) {
+      countTask.cancel(true);
+      countTask = null;
     }
+    super.onPause();
+  }
+
+  private void reloadHistoryItems() {
+    adapter.reload();
+    // Counting the whole history takes time in proportion to its length, so the title follows the list
+    if (countTask != null) {
+      countTask.cancel(true);
+    }
+    countTask = new CountHistoryAsyncTask(this, historyManager);
+    countTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+  }
+
+  void onHistoryCounted(int count) {
+    countTask = null;
+    setTitle(originalTitle + " (" + count + ')');
   }
 
   @Override
   protected void onListItemClick(ListView l, View v, int position, long id) {
     if (adapter.getItem(position).getResult() != null) {
       Intent intent = new Intent(this, CaptureActivity.class);
-      intent.putExtra(Intents.History.ITEM_NUMBER, position);
+      intent.putExtra(Intents.History.ITEM_ID, id);
       setResult(Activity.RESULT_OK, intent);
       finish();
     }
@@ -100,45 +144,98 @@ public final class HistoryActivity extends ListActivity {
 
   @Override
   public boolean onContextItemSelected(MenuItem item) {
-    int position = item.getItemId();
-    historyManager.deleteHistoryItem(position);
+    long id = ((AdapterView.AdapterContextMenuInfo) item.getMenuInfo()).id;
+    historyManager.deleteHistoryItem(id);
     reloadHistoryItems();
     return true;
   }
 
   @Override
   public boolean onCreateOptionsMenu(Menu menu) {
-    if (historyManager.hasHistoryItems()) {
-      MenuInflater menuInflater = getMenuInflater();
-      menuInflater.inflate(R.menu.history, menu);
+    MenuInflater menuInflater = getMenuInflater();
+    menuInflater.inflate(R.menu.history, menu);
+    // Import is offered even with no history, e.g. on a new device
+    boolean hasHistory = historyManager.hasHistoryItems();
+    menu.setGroupVisible(R.id.menu_history_items, hasHistory);
+    if (hasHistory) {
+      MenuItem searchItem = menu.findItem(R.id.menu_history_search);
+      searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+        @Override
+        public boolean onMenuItemActionExpand(MenuItem item) {
+          return true;
+        }
+
+        @Override
+        public boolean onMenuItemActionCollapse(MenuItem item) {
+          search(null, 0L);
+          return true;
+        }
+      });
+      SearchView searchView = (SearchView) searchItem.getActionView();
+      searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+        @Override
+        public boolean onQueryTextSubmit(String query) {
+          search(query, 0L);
+          return true;
+        }
+
+        @Override
+        public boolean onQueryTextChange(String newText) {
+          // 输入停顿后再查,不是每个字符都查一次
+          search(newText, SEARCH_DELAY_MS);
+          return true;
+        }
+      });
     }
     return super.onCreateOptionsMenu(menu);
   }
 
+  @Override
+  public void onActivityResult(int requestCode, int resultCode, Intent intent) {
+    if (requestCode == IMPORT_REQUEST_CODE && resultCode == RESULT_OK && intent != null && intent.getData() != null) {
+      if (backgroundTask != null) {
+        backgroundTask.cancel(true);
+      }
+      backgroundTask = new ImportHistoryAsyncTask(this, historyManager, intent.getData());
+      backgroundTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+  }
+
+  void onHistoryImported() {
+    backgroundTask = null;
+    reloadHistoryItems();
+    invalidateOptionsMenu();
+  }
+
+  /**
+   * Shows the items matching the query after the given delay, unless another search comes first.
+   */
+  private void search(String query, long delayMs) {
+    pendingQuery = query == null || query.trim().isEmpty() ? null : query;
+    searchHandler.removeCallbacks(searchRunnable);
+    searchHandler.postDelayed(searchRunnable, delayMs);
+  }
+
   @Override
   public boolean onOptionsItemSelected(MenuItem item) {
     switch (item.getItemId()) {
       case R.id.menu_history_send:
-        CharSequence history = historyManager.buildHistory();
-        Parcelable historyFile = HistoryManager.saveHistory(history.toString());
-        if (historyFile == null) {
-          AlertDialog.Builder builder = new AlertDialog.Builder(this);
-          builder.setMessage(R.string.msg_unmount_usb);
-          builder.setPositiveButton(R.string.button_ok, null);
-          builder.show();
-        } else {
-          Intent intent = new Intent(Intent.ACTION_SEND, Uri.parse("mailto:"));
-          intent.addFlags(Intents.FLAG_NEW_DOC);
-          String subject = getResources().getString(R.string.history_email_title);
-          intent.putExtra(Intent.EXTRA_SUBJECT, subject);
-          intent.putExtra(Intent.EXTRA_TEXT, subject);
-          intent.putExtra(Intent.EXTRA_STREAM, historyFile);
-          intent.setType("text/csv");
-          try {
-            startActivity(intent);
-          } catch (ActivityNotFoundException anfe) {
-            Log.w(TAG, anfe.toString());
-          }
+        if (backgroundTask != null) {
+          backgroundTask.cancel(true);
+        }
+        boolean gzip = PreferenceManager.getDefaultSharedPreferences(this)
+            .getBoolean(PreferencesActivity.KEY_HISTORY_EXPORT_GZIP, false);
+        backgroundTask = new ExportHistoryAsyncTask(this, historyManager, gzip);
+        backgroundTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        break;
+      case R.id.menu_history_import:
+        Intent pickIntent = new Intent(Intent.ACTION_GET_CONTENT);
+        pickIntent.addCategory(Intent.CATEGORY_OPENABLE);
+        pickIntent.setType("*/*");
+        try {
+          startActivityForResult(pickIntent, IMPORT_REQUEST_CODE);
+        } catch (ActivityNotFoundException anfe) {
+          Log.w(TAG, anfe.toString());
         }
         break;
       case R.id.menu_history_clear_text:
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import com.google.zxing.BarcodeFormat;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads history in the CSV format {@link HistoryManager} exports and adds it to the database. The file is
+ * parsed a buffer at a time, never held whole, and rows are inserted through one compiled statement in
+ * transactions of {@link #BATCH_SIZE}, skipping scans that are already in the history.
+ * <p>
+ * 流式解析导出的 CSV 历史记录,按批在事务中插入,已有的扫描跳过.
+ */
+final class HistoryImporter {
+
+  private static final String TAG = HistoryImporter.class.getSimpleName();
+
+  private static final int BATCH_SIZE = 1000;
+  private static final int BUFFER_SIZE = 8192;
+
+  // Field positions, as written by HistoryManager.writeHistory
+  private static final int TEXT_FIELD = 0;
+  private static final int DISPLAY_FIELD = 1;
+  private static final int FORMAT_FIELD = 2;
+  private static final int TIMESTAMP_FIELD = 3;
+  private static final int DETAILS_FIELD = 5;
+
+  private final HistoryStore store;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private final List<String> fields = new ArrayList<>(DETAILS_FIELD + 1);
+  private final StringBuilder field = new StringBuilder();
+  private Reader in;
+  private int position;
+  private int limit;
+
+  HistoryImporter(HistoryStore store) {
+    this.store = store;
+  }
+
+  /**
+   * @return number of scans added
+   * @throws IOException if the file cannot be read; scans already committed stay
+   */
+  int importHistory(Reader in, HistoryManager.Progress progress) throws IOException {
+    this.in = in;
+    position = 0;
+    limit = 0;
+    SQLiteDatabase db = store.getDatabase();
+    int imported = 0;
+    int skipped = 0;
+    boolean more = true;
+    while (more && !progress.isCancelled()) {
+      // The store's lock before the write connection; see HistoryStore
+      synchronized (store) {
+        db.beginTransactionNonExclusive();
+        try {
+          for (int i = 0; i < BATCH_SIZE && (more = readRecord()); i++) {
+            if (fields.size() <= TIMESTAMP_FIELD) {
+              skipped++;
+              continue;
+            }
+            String text = fields.get(TEXT_FIELD);
+            String format = fields.get(FORMAT_FIELD);
+            long timestamp;
+            try {
+              BarcodeFormat.valueOf(format);
+              timestamp = Long.parseLong(fields.get(TIMESTAMP_FIELD));
+            } catch (IllegalArgumentException iae) {
+              // Not a scan, e.g. a header line
+              skipped++;
+              continue;
+            }
+            if (text.isEmpty()) {
+              skipped++;
+              continue;
+            }
+            String display = emptyToNull(fields.get(DISPLAY_FIELD));
+            String details = fields.size() > DETAILS_FIELD ? emptyToNull(fields.get(DETAILS_FIELD)) : null;
+            if (store.insertIfAbsent(text, format, display, timestamp, details)) {
+              imported++;
+            }
+          }
+          db.setTransactionSuccessful();
+        } finally {
+          db.endTransaction();
+        }
+      }
+      progress.onProgress(imported, -1);
+    }
+    Log.i(TAG, "Imported " + imported + " history items; skipped " + skipped + " unreadable lines");
+    return imported;
+  }
+
+  /**
+   * Reads the next line into {@link #fields}. Fields are separated by commas and may be double-quoted, in
+   * which case they can contain commas, line breaks and doubled double-quotes.
+   *
+   * @return {@code false} at the end of the input
+   */
+  private boolean readRecord() throws IOException {
+    fields.clear();
+    field.setLength(0);
+    boolean quoted = false;
+    boolean any = false;
+    int c;
+    while ((c = read()) >= 0) {
+      any = true;
+      if (quoted) {
+        if (c != '"') {
+          field.append((char) c);
+        } else if (peek() == '"') {
+          read();
+          field.append('"');
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else if (c == '\n') {
+        break;
+      } else if (c != '\r') {
+        field.append((char) c);
+      }
+    }
+    if (!any) {
+      return false;
+    }
+    fields.add(field.toString());
+    return true;
+  }
+
+  private int read() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position++];
+  }
+
+  private int peek() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position];
+  }
+
+  private boolean fill() throws IOException {
+    int read;
+    do {
+      read = in.read(buffer, 0, buffer.length);
+    } while (read == 0);
+    if (read < 0) {
+      return false;
+    }
+    position = 0;
+    limit = read;
+    return true;
+  }
+
+  private static String emptyToNull(String value) {
+    return value.isEmpty() ? null : value;
+  }
+
+}
@@ -23,16 +23,22 @@ import com.google.zxing.Result;
  */
 public final class HistoryItem {
 
+  private final long id;
   private final Result result;
   private final String display;
   private final String details;
   
-  HistoryItem(Result result, String display, String details) {
+  HistoryItem(long id, Result result, String display, String details) {
+    this.id = id;
     this.result = result;
     this.display = display;
     this.details = details;
   }
 
+  long getId() {
+    return id;
+  }
+
   public Result getResult() {
     return result;
   }
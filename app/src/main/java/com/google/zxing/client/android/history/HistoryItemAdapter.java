@@ -21,21 +21,100 @@ import android.content.res.Resources;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import com.google.zxing.Result;
 import com.google.zxing.client.android.R;
 
 import java.util.ArrayList;
+import java.util.List;
 
-final class HistoryItemAdapter extends ArrayAdapter<HistoryItem> {
+/**
+ * Shows the history a page at a time. Only the first page is loaded up front; the list asks for more
+ * through {@link #loadMoreIfNear(int)} as it scrolls towards the end of what is loaded. With a search
+ * query set, only the matching items are shown.
+ */
+final class HistoryItemAdapter extends BaseAdapter {
+
+  private static final int PAGE_SIZE = 50;
+  /** The next page is loaded once the list shows an item this close to the end of what is loaded. */
+  private static final int PREFETCH_DISTANCE = 10;
+
+  /** Stands in for the whole list while there is no history. */
+  private static final HistoryItem EMPTY_ITEM = new HistoryItem(-1L, null, null, null);
 
   private final Context activity;
+  private final HistoryManager historyManager;
+  private final List<HistoryItem> items = new ArrayList<>();
+  private boolean moreAvailable;
+  private String query;
 
-  HistoryItemAdapter(Context activity) {
-    super(activity, R.layout.history_list_item, new ArrayList<HistoryItem>());
+  HistoryItemAdapter(Context activity, HistoryManager historyManager) {
     this.activity = activity;
+    this.historyManager = historyManager;
+  }
+
+  /**
+   * Drops everything loaded and loads the first page again.
+   */
+  void reload() {
+    items.clear();
+    moreAvailable = true;
+    loadNextPage();
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Shows only the items matching the query, or all of them again for {@code null}.
+   */
+  void setQuery(String query) {
+    this.query = query;
+    reload();
+  }
+
+  /**
+   * @param lastVisiblePosition position of the last item the list shows
+   */
+  void loadMoreIfNear(int lastVisiblePosition) {
+    if (moreAvailable && lastVisiblePosition >= items.size() - PREFETCH_DISTANCE) {
+      loadNextPage();
+      notifyDataSetChanged();
+    }
+  }
+
+  private void loadNextPage() {
+    HistoryItem last = items.isEmpty() ? null : items.get(items.size() - 1);
+    List<HistoryItem> page = query == null ?
+        historyManager.buildHistoryItems(last, PAGE_SIZE) :
+        historyManager.searchHistoryItems(query, last, PAGE_SIZE);
+    items.addAll(page);
+    moreAvailable = page.size() == PAGE_SIZE;
+  }
+
+  @Override
+  public int getCount() {
+    return items.isEmpty() ? 1 : items.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return items.isEmpty();
+  }
+
+  @Override
+  public HistoryItem getItem(int position) {
+    return items.isEmpty() ? EMPTY_ITEM : items.get(position);
+  }
+
+  @Override
+  public long getItemId(int position) {
+    return getItem(position).getId();
+  }
+
+  @Override
+  public boolean hasStableIds() {
+    return true;
   }
 
   @Override
@@ -57,9 +136,9 @@ final class HistoryItemAdapter extends ArrayAdapter<HistoryItem> {
       title = result.getText();
       detail = item.getDisplayAndDetails();      
     } else {
-      Resources resources = getContext().getResources();
+      Resources resources = activity.getResources();
       title = resources.getString(R.string.history_empty);
-      detail = resources.getString(R.string.history_empty_detail);
+      detail = resources.getString(query == null ? R.string.history_empty_detail : R.string.history_search_empty);
     }
 
     ((TextView) layout.findViewById(R.id.history_title)).setText(title);    
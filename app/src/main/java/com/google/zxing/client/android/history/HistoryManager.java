@@ -23,27 +23,31 @@ import com.google.zxing.client.android.PreferencesActivity;
 import com.google.zxing.client.android.result.ResultHandler;
 
 import android.app.Activity;
-import android.content.ContentValues;
 import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.database.CursorIndexOutOfBoundsException;
 import android.database.SQLException;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
 import android.os.Environment;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * <p>Manages functionality related to scan history.</p>
@@ -56,7 +60,8 @@ public final class HistoryManager {
 
   private static final String TAG = HistoryManager.class.getSimpleName();
 
-  private static final int MAX_ITEMS = 2000;
+  private static final long DAY_MS = 24L * 60L * 60L * 1000L;
+  private static final long MB = 1024L * 1024L;
 
   private static final String[] COLUMNS = {
       DBHelper.TEXT_COL,
@@ -64,85 +69,226 @@ public final class HistoryManager {
       DBHelper.FORMAT_COL,
       DBHelper.TIMESTAMP_COL,
       DBHelper.DETAILS_COL,
+      DBHelper.ID_COL,
   };
 
-  private static final String[] COUNT_COLUMN = { "COUNT(1)" };
+  /** Newest first; the ID breaks ties, so that the order is stable and usable as a key for paging. */
+  static final String ORDER_BY = DBHelper.TIMESTAMP_COL + " DESC, " + DBHelper.ID_COL + " DESC";
+  // Same as timestamp<? OR (timestamp=? AND id<?), but written so that SQLite searches the timestamp index
+  static final String AFTER_SELECTION =
+      DBHelper.TIMESTAMP_COL + "<=? AND (" + DBHelper.TIMESTAMP_COL + "<? OR " + DBHelper.ID_COL + "<?)";
+
+  /**
+   * Matches come newest first by row ID rather than by timestamp: the full-text index returns rows in that
+   * order without collecting and sorting every match, so a search matching most of the history is as quick
+   * as one matching a few items.
+   */
+  private static final String SEARCH_SQL =
+      "SELECT " + qualify(COLUMNS) + " FROM " + DBHelper.FTS_TABLE_NAME +
+      " JOIN " + DBHelper.TABLE_NAME + " ON " + DBHelper.TABLE_NAME + '.' + DBHelper.ID_COL + '=' +
+      DBHelper.FTS_TABLE_NAME + ".docid WHERE " + DBHelper.FTS_TABLE_NAME + " MATCH ?";
+  private static final String SEARCH_AFTER_SQL = " AND " + DBHelper.FTS_TABLE_NAME + ".docid<?";
+  private static final String SEARCH_ORDER_BY = " ORDER BY " + DBHelper.FTS_TABLE_NAME + ".docid DESC LIMIT ";
 
   private static final String[] ID_COL_PROJECTION = { DBHelper.ID_COL };
-  private static final String[] ID_DETAIL_COL_PROJECTION = { DBHelper.ID_COL, DBHelper.DETAILS_COL };
-  private static final Pattern DOUBLE_QUOTE = Pattern.compile("\"", Pattern.LITERAL);
+  private static final String[] COUNT_COLUMN = { "COUNT(1)" };
+
+  private static final int FILE_BUFFER_SIZE = 64 * 1024;
+  private static final int EXPORT_PROGRESS_INTERVAL = 500;
 
   private final Activity activity;
+  private final HistoryStore store;
+  private final HistoryWriter writer;
   private final boolean enableHistory;
 
   public HistoryManager(Activity activity) {
     this.activity = activity;
+    store = HistoryStore.get(activity);
+    writer = store.getWriter();
     SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(activity);
     enableHistory = prefs.getBoolean(PreferencesActivity.KEY_ENABLE_HISTORY, true);
+    HistoryRetention retention = store.getRetention();
+    retention.setMaxItems(readIntPref(prefs, PreferencesActivity.KEY_HISTORY_MAX_ITEMS,
+                                      HistoryRetention.DEFAULT_MAX_ITEMS));
+    retention.setMaxAge(readIntPref(prefs, PreferencesActivity.KEY_HISTORY_MAX_AGE, 0) * DAY_MS);
+    retention.setMaxBytes(readIntPref(prefs, PreferencesActivity.KEY_HISTORY_MAX_SIZE, 0) * MB);
   }
 
+  /**
+   * @return the list preference's value, or the default if it is unset or not a number
+   */
+  private static int readIntPref(SharedPreferences prefs, String key, int defaultValue) {
+    try {
+      return Integer.parseInt(prefs.getString(key, Integer.toString(defaultValue)));
+    } catch (NumberFormatException nfe) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Looks at one row at most, so it costs the same however long the history is.
+   */
   public boolean hasHistoryItems() {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    try (SQLiteDatabase db = helper.getReadableDatabase();
-         Cursor cursor = db.query(DBHelper.TABLE_NAME, COUNT_COLUMN, null, null, null, null, null)) {
-      cursor.moveToFirst();
-      return cursor.getInt(0) > 0;
+    try (Cursor cursor = store.getDatabase().query(DBHelper.TABLE_NAME, ID_COL_PROJECTION,
+                                                   null, null, null, null, null, "1")) {
+      return cursor.moveToFirst();
     } catch (SQLException sqle) {
       Log.w(TAG, sqle);
       return false;
     }
   }
 
-  public List<HistoryItem> buildHistoryItems() {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    List<HistoryItem> items = new ArrayList<>();
-    try (SQLiteDatabase db = helper.getReadableDatabase();
-         Cursor cursor = db.query(DBHelper.TABLE_NAME,
-                                  COLUMNS,
-                                  null, null, null, null,
-                                  DBHelper.TIMESTAMP_COL + " DESC")) {
+  /**
+   * Counts every item, which takes time in proportion to the length of the history; don't call it on the UI
+   * thread.
+   */
+  public int countHistoryItems() {
+    try (Cursor cursor = store.getDatabase().query(DBHelper.TABLE_NAME, COUNT_COLUMN,
+                                                   null, null, null, null, null)) {
+      cursor.moveToFirst();
+      return cursor.getInt(0);
+    } catch (SQLException sqle) {
+      Log.w(TAG, sqle);
+      return 0;
+    }
+  }
+
+  /**
+   * Loads one page of history, newest first. Pages are found by key rather than by offset, so that a page
+   * deep into a long history costs the same as the first.
+   *
+   * @param after last item of the previous page, or {@code null} for the first page
+   * @param limit most items to return; fewer means there are no more
+   */
+  public List<HistoryItem> buildHistoryItems(HistoryItem after, int limit) {
+    List<HistoryItem> items = new ArrayList<>(limit);
+    String selection = null;
+    String[] selectionArgs = null;
+    if (after != null) {
+      String timestamp = Long.toString(after.getResult().getTimestamp());
+      selection = AFTER_SELECTION;
+      selectionArgs = new String[] { timestamp, timestamp, Long.toString(after.getId()) };
+    }
+    try (Cursor cursor = store.getDatabase().query(DBHelper.TABLE_NAME,
+                                                   COLUMNS,
+                                                   selection, selectionArgs, null, null,
+                                                   ORDER_BY,
+                                                   Integer.toString(limit))) {
       while (cursor.moveToNext()) {
-        String text = cursor.getString(0);
-        String display = cursor.getString(1);
-        String format = cursor.getString(2);
-        long timestamp = cursor.getLong(3);
-        String details = cursor.getString(4);
-        Result result = new Result(text, null, null, BarcodeFormat.valueOf(format), timestamp);
-        items.add(new HistoryItem(result, display, details));
+        items.add(readHistoryItem(cursor));
+      }
+    } catch (SQLException sqle) {
+      Log.w(TAG, sqle);
+    }
+    return items;
+  }
+
+  /**
+   * Loads one page of the items whose text, display text or details contain words starting with each word of
+   * the query, most recently added first.
+   *
+   * @param query words to look for, as typed
+   * @param after last item of the previous page, or {@code null} for the first page
+   * @param limit most items to return; fewer means there are no more
+   */
+  public List<HistoryItem> searchHistoryItems(String query, HistoryItem after, int limit) {
+    List<HistoryItem> items = new ArrayList<>(limit);
+    String match = toMatchExpression(query);
+    if (match == null) {
+      return items;
+    }
+    String sql;
+    String[] selectionArgs;
+    if (after == null) {
+      sql = SEARCH_SQL + SEARCH_ORDER_BY + limit;
+      selectionArgs = new String[] { match };
+    } else {
+      sql = SEARCH_SQL + SEARCH_AFTER_SQL + SEARCH_ORDER_BY + limit;
+      selectionArgs = new String[] { match, Long.toString(after.getId()) };
+    }
+    try (Cursor cursor = store.getDatabase().rawQuery(sql, selectionArgs)) {
+      while (cursor.moveToNext()) {
+        items.add(readHistoryItem(cursor));
       }
-    } catch (CursorIndexOutOfBoundsException cioobe) {
-      Log.w(TAG, cioobe);
+    } catch (SQLException sqle) {
+      Log.w(TAG, sqle);
     }
     return items;
   }
 
-  public HistoryItem buildHistoryItem(int number) {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    try (SQLiteDatabase db = helper.getReadableDatabase();
-         Cursor cursor = db.query(DBHelper.TABLE_NAME,
-                                  COLUMNS,
-                                  null, null, null, null,
-                                  DBHelper.TIMESTAMP_COL + " DESC")) {
-      cursor.move(number + 1);
-      String text = cursor.getString(0);
-      String display = cursor.getString(1);
-      String format = cursor.getString(2);
-      long timestamp = cursor.getLong(3);
-      String details = cursor.getString(4);
-      Result result = new Result(text, null, null, BarcodeFormat.valueOf(format), timestamp);
-      return new HistoryItem(result, display, details);
+  /**
+   * Turns typed text into a full-text query that matches items with a word starting with each word typed.
+   * Words are split the way the index splits them, and each is quoted, so nothing typed is read as a query
+   * operator.
+   *
+   * @return the query, or {@code null} if nothing searchable was typed
+   */
+  private static String toMatchExpression(String query) {
+    StringBuilder match = new StringBuilder();
+    int length = query.length();
+    int start = -1;
+    for (int i = 0; i <= length; i++) {
+      // The simple tokenizer splits on ASCII characters other than letters and digits
+      char c = i < length ? query.charAt(i) : ' ';
+      boolean separator = c < 128 && !Character.isLetterOrDigit(c);
+      if (!separator && start < 0) {
+        start = i;
+      } else if (separator && start >= 0) {
+        if (match.length() > 0) {
+          match.append(' ');
+        }
+        match.append('"').append(query, start, i).append("*\"");
+        start = -1;
+      }
+    }
+    return match.length() == 0 ? null : match.toString();
+  }
+
+  private static String qualify(String[] columns) {
+    StringBuilder qualified = new StringBuilder();
+    for (String column : columns) {
+      if (qualified.length() > 0) {
+        qualified.append(", ");
+      }
+      qualified.append(DBHelper.TABLE_NAME).append('.').append(column);
+    }
+    return qualified.toString();
+  }
+
+  private static HistoryItem readHistoryItem(Cursor cursor) {
+    String text = cursor.getString(0);
+    String display = cursor.getString(1);
+    String format = cursor.getString(2);
+    long timestamp = cursor.getLong(3);
+    String details = cursor.getString(4);
+    long id = cursor.getLong(5);
+    Result result = new Result(text, null, null, BarcodeFormat.valueOf(format), timestamp);
+    return new HistoryItem(id, result, display, details);
+  }
+
+  /**
+   * @param id row ID of the item
+   * @return the item, or {@code null} if it no longer exists
+   */
+  public HistoryItem buildHistoryItem(long id) {
+    try (Cursor cursor = store.getDatabase().query(DBHelper.TABLE_NAME,
+                                                   COLUMNS,
+                                                   DBHelper.ID_COL + "=?",
+                                                   new String[] { Long.toString(id) },
+                                                   null, null, null)) {
+      return cursor.moveToFirst() ? readHistoryItem(cursor) : null;
+    } catch (SQLException sqle) {
+      Log.w(TAG, sqle);
+      return null;
     }
   }
-  
-  public void deleteHistoryItem(int number) {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    try (SQLiteDatabase db = helper.getWritableDatabase();
-         Cursor cursor = db.query(DBHelper.TABLE_NAME,
-                                  ID_COL_PROJECTION,
-                                  null, null, null, null,
-                                  DBHelper.TIMESTAMP_COL + " DESC")) {
-      cursor.move(number + 1);
-      db.delete(DBHelper.TABLE_NAME, DBHelper.ID_COL + '=' + cursor.getString(0), null);
+
+  /**
+   * @param id row ID of the item
+   */
+  public void deleteHistoryItem(long id) {
+    try {
+      store.deleteById(id);
     } catch (SQLException sqle) {
       Log.w(TAG, sqle);
     }
@@ -157,94 +303,93 @@ public final class HistoryManager {
     }
 
     SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(activity);
-    if (!prefs.getBoolean(PreferencesActivity.KEY_REMEMBER_DUPLICATES, false)) {
-      deletePrevious(result.getText());
-    }
-
-    ContentValues values = new ContentValues();
-    values.put(DBHelper.TEXT_COL, result.getText());
-    values.put(DBHelper.FORMAT_COL, result.getBarcodeFormat().toString());
-    values.put(DBHelper.DISPLAY_COL, handler.getDisplayContents().toString());
-    values.put(DBHelper.TIMESTAMP_COL, System.currentTimeMillis());
+    boolean replacePrevious = !prefs.getBoolean(PreferencesActivity.KEY_REMEMBER_DUPLICATES, false);
 
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    try (SQLiteDatabase db = helper.getWritableDatabase()) {
-      // Insert the new entry into the DB.
-      db.insert(DBHelper.TABLE_NAME, DBHelper.TIMESTAMP_COL, values);
-    } catch (SQLException sqle) {
-      Log.w(TAG, sqle);
-    }
+    // Written in the background, batched with other scans
+    writer.insert(result.getText(),
+                  result.getBarcodeFormat().toString(),
+                  handler.getDisplayContents().toString(),
+                  System.currentTimeMillis(),
+                  replacePrevious);
   }
 
   public void addHistoryItemDetails(String itemID, String itemDetails) {
     // As we're going to do an update only we don't need need to worry
     // about the preferences; if the item wasn't saved it won't be udpated
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    try (SQLiteDatabase db = helper.getWritableDatabase();
-         Cursor cursor = db.query(DBHelper.TABLE_NAME,
-                                  ID_DETAIL_COL_PROJECTION,
-                                  DBHelper.TEXT_COL + "=?",
-                                  new String[] { itemID },
-                                  null,
-                                  null,
-                                  DBHelper.TIMESTAMP_COL + " DESC",
-                                  "1")) {
-      String oldID = null;
-      String oldDetails = null;
-      if (cursor.moveToNext()) {
-        oldID = cursor.getString(0);
-        oldDetails = cursor.getString(1);
-      }
-
-      if (oldID != null) {
-        String newDetails;
-        if (oldDetails == null) {
-          newDetails = itemDetails;
-        } else if (oldDetails.contains(itemDetails)) {
-          newDetails = null;
-        } else {
-          newDetails = oldDetails + " : " + itemDetails;
-        } 
-        if (newDetails != null) {
-          ContentValues values = new ContentValues();
-          values.put(DBHelper.DETAILS_COL, newDetails);
-          db.update(DBHelper.TABLE_NAME, values, DBHelper.ID_COL + "=?", new String[] { oldID });
-        }
-      }
-    } catch (SQLException sqle) {
-      Log.w(TAG, sqle);
-    }
+    writer.addDetails(itemID, itemDetails);
   }
 
-  private void deletePrevious(String text) {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    try (SQLiteDatabase db = helper.getWritableDatabase()) {
-      db.delete(DBHelper.TABLE_NAME, DBHelper.TEXT_COL + "=?", new String[] { text });
-    } catch (SQLException sqle) {
-      Log.w(TAG, sqle);
-    }
+  /**
+   * Waits until all history written so far is in the database. Called when the scanner goes into the
+   * background, so that no scan is lost and the history screen sees the latest ones.
+   */
+  public void flush() {
+    writer.flush();
   }
 
+  /**
+   * Asks for the history to be brought within its limits, in the background. This also happens after
+   * every batch of new scans.
+   */
   public void trimHistory() {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    try (SQLiteDatabase db = helper.getWritableDatabase();
-         Cursor cursor = db.query(DBHelper.TABLE_NAME,
-                                  ID_COL_PROJECTION,
-                                  null, null, null, null,
-                                  DBHelper.TIMESTAMP_COL + " DESC")) {
-      cursor.move(MAX_ITEMS);
-      while (cursor.moveToNext()) {
-        String id = cursor.getString(0);
-        Log.i(TAG, "Deleting scan history ID " + id);
-        db.delete(DBHelper.TABLE_NAME, DBHelper.ID_COL + '=' + id, null);
+    writer.trim();
+  }
+
+  /**
+   * Receives progress of {@link #exportHistory(boolean, Progress)} or {@link #importHistory(Uri, Progress)}
+   * and can stop it.
+   */
+  interface Progress {
+
+    /**
+     * @param done items written or read so far
+     * @param total items in all, or -1 if not known in advance
+     */
+    void onProgress(int done, int total);
+
+    boolean isCancelled();
+  }
+
+  /**
+   * Writes the history to a new file on external storage, straight from the database, so memory use
+   * doesn't depend on how long the history is. See {@link #writeHistory(Writer, Progress)} for
+   * the format.
+   *
+   * @param gzip compress the file with gzip
+   * @return the file, or {@code null} if it could not be written or the export was cancelled
+   */
+  Uri exportHistory(boolean gzip, Progress progress) {
+    File bsRoot = new File(Environment.getExternalStorageDirectory(), "BarcodeScanner");
+    File historyRoot = new File(bsRoot, "History");
+    if (!historyRoot.exists() && !historyRoot.mkdirs()) {
+      Log.w(TAG, "Couldn't make dir " + historyRoot);
+      return null;
+    }
+    File historyFile =
+        new File(historyRoot, "history-" + System.currentTimeMillis() + (gzip ? ".csv.gz" : ".csv"));
+    boolean complete;
+    // Each stream is its own resource, so the file is closed even if the gzip stream fails to open
+    try (OutputStream fileOut = new FileOutputStream(historyFile);
+         OutputStream out = gzip ? new GZIPOutputStream(fileOut, FILE_BUFFER_SIZE) : fileOut;
+         Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+                                            FILE_BUFFER_SIZE)) {
+      complete = writeHistory(writer, progress);
+    } catch (IOException | SQLException e) {
+      // Also reached if closing fails, which is where the buffered data and gzip trailer are written
+      Log.w(TAG, "Couldn't access file " + historyFile + " due to " + e);
+      complete = false;
+    }
+    if (!complete) {
+      if (!historyFile.delete()) {
+        Log.w(TAG, "Couldn't delete partial file " + historyFile);
       }
-    } catch (SQLException sqle) {
-      Log.w(TAG, sqle);
+      return null;
     }
+    return Uri.parse("file://" + historyFile.getAbsolutePath());
   }
 
   /**
-   * <p>Builds a text representation of the scanning history. Each scan is encoded on one
+   * <p>Writes a text representation of the scanning history. Each scan is encoded on one
    * line, terminated by a line break (\r\n). The values in each line are comma-separated,
    * and double-quoted. Double-quotes within values are escaped with a sequence of two
    * double-quotes. The fields output are:</p>
@@ -257,65 +402,103 @@ public final class HistoryManager {
    *  <li>Formatted version of timestamp</li>
    *  <li>Supplemental info (e.g. price info for a product barcode)</li>
    * </ol>
+   *
+   * @return {@code false} if cancelled before all of the history was written
    */
-  CharSequence buildHistory() {
-    StringBuilder historyText = new StringBuilder(1000);
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    try (SQLiteDatabase db = helper.getReadableDatabase();
-         Cursor cursor = db.query(DBHelper.TABLE_NAME,
-                                  COLUMNS,
-                                  null, null, null, null,
-                                  DBHelper.TIMESTAMP_COL + " DESC")) {
+  private boolean writeHistory(Writer out, Progress progress) throws IOException {
+    // Cursor.getCount() would step through every row before the first is written
+    int total = countHistoryItems();
+    try (Cursor cursor = store.getDatabase().query(DBHelper.TABLE_NAME,
+                                                   COLUMNS,
+                                                   null, null, null, null,
+                                                   ORDER_BY)) {
       DateFormat format = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
+      int written = 0;
       while (cursor.moveToNext()) {
-
-        historyText.append('"').append(massageHistoryField(cursor.getString(0))).append("\",");
-        historyText.append('"').append(massageHistoryField(cursor.getString(1))).append("\",");
-        historyText.append('"').append(massageHistoryField(cursor.getString(2))).append("\",");
-        historyText.append('"').append(massageHistoryField(cursor.getString(3))).append("\",");
+        writeHistoryField(out, cursor.getString(0), ',');
+        writeHistoryField(out, cursor.getString(1), ',');
+        writeHistoryField(out, cursor.getString(2), ',');
+        writeHistoryField(out, cursor.getString(3), ',');
 
         // Add timestamp again, formatted
         long timestamp = cursor.getLong(3);
-        historyText.append('"').append(massageHistoryField(format.format(timestamp))).append("\",");
+        writeHistoryField(out, format.format(timestamp), ',');
 
         // Above we're preserving the old ordering of columns which had formatted data in position 5
 
-        historyText.append('"').append(massageHistoryField(cursor.getString(4))).append("\"\r\n");
+        writeHistoryField(out, cursor.getString(4), '\r');
+        out.write('\n');
+
+        written++;
+        if (written % EXPORT_PROGRESS_INTERVAL == 0) {
+          if (progress.isCancelled()) {
+            return false;
+          }
+          progress.onProgress(written, total);
+        }
       }
-    } catch (SQLException sqle) {
-      Log.w(TAG, sqle);
+      progress.onProgress(written, total);
     }
-    return historyText;
+    return true;
   }
-  
-  void clearHistory() {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    try (SQLiteDatabase db = helper.getWritableDatabase()) {
-      db.delete(DBHelper.TABLE_NAME, null, null);
-    } catch (SQLException sqle) {
-      Log.w(TAG, sqle);
+
+  /**
+   * Writes the value double-quoted, doubling any double-quotes in it, followed by the separator.
+   */
+  private static void writeHistoryField(Writer out, String value, char separator) throws IOException {
+    out.write('"');
+    if (value != null) {
+      int start = 0;
+      for (int quote = value.indexOf('"'); quote >= 0; quote = value.indexOf('"', start)) {
+        out.write(value, start, quote + 1 - start);
+        out.write('"');
+        start = quote + 1;
+      }
+      out.write(value, start, value.length() - start);
     }
+    out.write('"');
+    out.write(separator);
   }
 
-  static Uri saveHistory(String history) {
-    File bsRoot = new File(Environment.getExternalStorageDirectory(), "BarcodeScanner");
-    File historyRoot = new File(bsRoot, "History");
-    if (!historyRoot.exists() && !historyRoot.mkdirs()) {
-      Log.w(TAG, "Couldn't make dir " + historyRoot);
-      return null;
-    }
-    File historyFile = new File(historyRoot, "history-" + System.currentTimeMillis() + ".csv");
-    try (OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(historyFile), StandardCharsets.UTF_8)) {
-      out.write(history);
-      return Uri.parse("file://" + historyFile.getAbsolutePath());
-    } catch (IOException ioe) {
-      Log.w(TAG, "Couldn't access file " + historyFile + " due to " + ioe);
-      return null;
+  /**
+   * Adds the scans in a file written by {@link #exportHistory(boolean, Progress)}, plain or gzipped, to the
+   * history. Scans already in the history are skipped, so importing the same file twice adds nothing the
+   * second time. What was imported before a cancel or an error is kept.
+   *
+   * @return number of scans added, or -1 if the file could not be read
+   */
+  int importHistory(Uri uri, Progress progress) {
+    try (InputStream in = activity.getContentResolver().openInputStream(uri)) {
+      if (in == null) {
+        return -1;
+      }
+      InputStream buffered = new BufferedInputStream(in, FILE_BUFFER_SIZE);
+      if (isGzip(buffered)) {
+        buffered = new GZIPInputStream(buffered, FILE_BUFFER_SIZE);
+      }
+      Reader reader = new InputStreamReader(buffered, StandardCharsets.UTF_8);
+      return new HistoryImporter(store).importHistory(reader, progress);
+    } catch (IOException | SQLException e) {
+      Log.w(TAG, "Couldn't import history from " + uri + " due to " + e);
+      return -1;
+    } finally {
+      writer.trim();
     }
   }
 
-  private static String massageHistoryField(String value) {
-    return value == null ? "" : DOUBLE_QUOTE.matcher(value).replaceAll("\"\"");
+  private static boolean isGzip(InputStream in) throws IOException {
+    in.mark(2);
+    int magic = in.read() | (in.read() << 8);
+    in.reset();
+    return magic == GZIPInputStream.GZIP_MAGIC;
+  }
+
+  void clearHistory() {
+    try {
+      store.getDatabase().delete(DBHelper.TABLE_NAME, null, null);
+    } catch (SQLException sqle) {
+      Log.w(TAG, sqle);
+    }
   }
 
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Keeps the history within a number of items, an age and a database size, oldest items going first. Each
+ * limit is a preference, and only the item limit is on by default, at the {@link #DEFAULT_MAX_ITEMS} the
+ * history always had. Each limit in force is enforced with a single DELETE over the timestamp index, and one
+ * pass deletes at most {@link #MAX_DELETES_PER_PASS} items, so a pass costs about the same however large the
+ * history has grown; anything left over goes in the next pass. Passes run on the {@link HistoryWriter} thread after
+ * each batch of writes.
+ * <p>
+ * 历史记录的保留策略:条数、时间、数据库大小,每次只删一小批,在后台写入线程上执行.
+ */
+final class HistoryRetention {
+
+  private static final String TAG = HistoryRetention.class.getSimpleName();
+
+  static final int DEFAULT_MAX_ITEMS = 2000;
+  /** Bounds how long one pass holds the database. */
+  private static final int MAX_DELETES_PER_PASS = 500;
+
+  /** Items beyond the newest {@code ?2}; walks at most the limit plus one pass worth of the index. */
+  static final String DELETE_BEYOND_COUNT_SQL =
+      "DELETE FROM " + DBHelper.TABLE_NAME + " WHERE " + DBHelper.ID_COL + " IN (" +
+      "SELECT " + DBHelper.ID_COL + " FROM " + DBHelper.TABLE_NAME +
+      " ORDER BY " + DBHelper.TIMESTAMP_COL + " DESC, " + DBHelper.ID_COL + " DESC LIMIT ?1 OFFSET ?2)";
+  static final String DELETE_OLDER_THAN_SQL =
+      "DELETE FROM " + DBHelper.TABLE_NAME + " WHERE " + DBHelper.ID_COL + " IN (" +
+      "SELECT " + DBHelper.ID_COL + " FROM " + DBHelper.TABLE_NAME +
+      " WHERE " + DBHelper.TIMESTAMP_COL + "<?1 ORDER BY " + DBHelper.TIMESTAMP_COL + " LIMIT ?2)";
+  static final String DELETE_OLDEST_SQL =
+      "DELETE FROM " + DBHelper.TABLE_NAME + " WHERE " + DBHelper.ID_COL + " IN (" +
+      "SELECT " + DBHelper.ID_COL + " FROM " + DBHelper.TABLE_NAME +
+      " ORDER BY " + DBHelper.TIMESTAMP_COL + ", " + DBHelper.ID_COL + " LIMIT ?1)";
+
+  private volatile int maxItems = DEFAULT_MAX_ITEMS;
+  private volatile long maxBytes;
+  private volatile long maxAgeMs;
+
+  private SQLiteStatement deleteBeyondCount;
+  private SQLiteStatement deleteOlderThan;
+  private SQLiteStatement deleteOldest;
+  private SQLiteStatement pageCount;
+  private SQLiteStatement freePageCount;
+
+  /**
+   * @param maxItems most items to keep, or 0 to keep any number
+   */
+  void setMaxItems(int maxItems) {
+    this.maxItems = maxItems;
+  }
+
+  /**
+   * @param maxBytes largest the database may grow before the oldest items are deleted, or 0 for no limit
+   */
+  void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @param maxAgeMs age beyond which items are deleted, or 0 to keep them however old
+   */
+  void setMaxAge(long maxAgeMs) {
+    this.maxAgeMs = maxAgeMs;
+  }
+
+  /**
+   * Runs one pass over the given database, in its own transaction.
+   *
+   * @return number of items deleted
+   */
+  int enforce(SQLiteDatabase db) {
+    int deleted = 0;
+    db.beginTransactionNonExclusive();
+    try {
+      if (deleteBeyondCount == null) {
+        deleteBeyondCount = db.compileStatement(DELETE_BEYOND_COUNT_SQL);
+        deleteOlderThan = db.compileStatement(DELETE_OLDER_THAN_SQL);
+        deleteOldest = db.compileStatement(DELETE_OLDEST_SQL);
+        pageCount = db.compileStatement("PRAGMA page_count");
+        freePageCount = db.compileStatement("PRAGMA freelist_count");
+      }
+
+      int maxItems = this.maxItems;
+      if (maxItems > 0) {
+        deleteBeyondCount.bindLong(1, MAX_DELETES_PER_PASS);
+        deleteBeyondCount.bindLong(2, maxItems);
+        deleted += deleteBeyondCount.executeUpdateDelete();
+      }
+
+      long maxAge = maxAgeMs;
+      if (maxAge > 0L && deleted < MAX_DELETES_PER_PASS) {
+        deleteOlderThan.bindLong(1, System.currentTimeMillis() - maxAge);
+        deleteOlderThan.bindLong(2, MAX_DELETES_PER_PASS - deleted);
+        deleted += deleteOlderThan.executeUpdateDelete();
+      }
+
+      long maxBytes = this.maxBytes;
+      if (maxBytes > 0L && deleted < MAX_DELETES_PER_PASS) {
+        // Pages on the free list are reused before the file grows, so they don't count
+        long usedBytes = (pageCount.simpleQueryForLong() - freePageCount.simpleQueryForLong()) * db.getPageSize();
+        if (usedBytes > maxBytes) {
+          // Roughly a tenth of what is kept, so that a few passes bring the size back under the limit
+          int batch = maxItems > 0 ? Math.max(1, maxItems / 10) : MAX_DELETES_PER_PASS / 10;
+          deleteOldest.bindLong(1, Math.min(MAX_DELETES_PER_PASS - deleted, batch));
+          deleted += deleteOldest.executeUpdateDelete();
+          Log.i(TAG, "History uses " + usedBytes + " bytes; deleting oldest items");
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    if (deleted > 0) {
+      Log.i(TAG, "Deleted " + deleted + " old history items");
+    }
+    return deleted;
+  }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Owns the one connection to the history database for the whole process. It is opened on first use in
+ * write-ahead logging mode, so that reads don't wait for writes, and is never closed; the process going
+ * away closes it. The statements on the insert and delete paths are compiled once and reused. Scans are
+ * written through its {@link HistoryWriter}, off the UI thread.
+ * <p>
+ * Lock order: a transaction is only begun while holding this object's lock, and its methods take the lock
+ * before the database's write connection. Waiting for the write connection while holding the lock, with
+ * another thread holding the connection and waiting for the lock, would deadlock.
+ * <p>
+ * 整个进程共用一个历史记录数据库连接(WAL 模式),常用的插入和删除语句预编译后复用.
+ */
+final class HistoryStore {
+
+  /** Takes the place of the newest item with the same text hash, if there is one. */
+  private static final String UPSERT_SQL =
+      "INSERT OR REPLACE INTO " + DBHelper.TABLE_NAME + " (" +
+      DBHelper.TEXT_COL + ", " +
+      DBHelper.FORMAT_COL + ", " +
+      DBHelper.DISPLAY_COL + ", " +
+      DBHelper.TIMESTAMP_COL + ", " +
+      DBHelper.TEXT_HASH_COL + ") VALUES (?, ?, ?, ?, ?)";
+  /**
+   * Older items with the text, which don't hold the hash. The unary plus keeps SQLite on the text index; the
+   * hash index would visit every item without a hash.
+   */
+  static final String DELETE_OLDER_COPIES_SQL =
+      "DELETE FROM " + DBHelper.TABLE_NAME + " WHERE " + DBHelper.TEXT_COL + "=? AND +" +
+      DBHelper.TEXT_HASH_COL + " IS NULL";
+  /** Lets an older item with the text stay when a newer one takes the hash. */
+  private static final String RELEASE_HASH_SQL =
+      "UPDATE " + DBHelper.TABLE_NAME + " SET " + DBHelper.TEXT_HASH_COL + "=NULL WHERE " +
+      DBHelper.TEXT_HASH_COL + "=?";
+  /**
+   * Inserts unless a scan of the same text at the same time is there already, looked up on an index. The
+   * item gets the text hash only if no other item has it; exports list newest first, so on import the newest
+   * item with each text gets it.
+   */
+  private static final String INSERT_IF_ABSENT_SQL =
+      "INSERT INTO " + DBHelper.TABLE_NAME + " (" +
+      DBHelper.TEXT_COL + ", " +
+      DBHelper.FORMAT_COL + ", " +
+      DBHelper.DISPLAY_COL + ", " +
+      DBHelper.TIMESTAMP_COL + ", " +
+      DBHelper.DETAILS_COL + ", " +
+      DBHelper.TEXT_HASH_COL + ") SELECT ?1, ?2, ?3, ?4, ?5, CASE WHEN EXISTS (SELECT 1 FROM " +
+      DBHelper.TABLE_NAME + " WHERE " + DBHelper.TEXT_HASH_COL + "=?6) THEN NULL ELSE ?6 END" +
+      " WHERE NOT EXISTS (SELECT 1 FROM " + DBHelper.TABLE_NAME + " WHERE " + DBHelper.TEXT_COL + "=?1 AND " +
+      DBHelper.TIMESTAMP_COL + "=?4)";
+  private static final String DELETE_ID_SQL =
+      "DELETE FROM " + DBHelper.TABLE_NAME + " WHERE " + DBHelper.ID_COL + "=?";
+  private static final String[] ID_DETAIL_COL_PROJECTION = { DBHelper.ID_COL, DBHelper.DETAILS_COL };
+
+  private static HistoryStore instance;
+
+  private final DBHelper helper;
+  private final HistoryWriter writer = new HistoryWriter(this);
+  private final HistoryRetention retention = new HistoryRetention();
+  private volatile SQLiteDatabase database;
+  private SQLiteStatement upsertStatement;
+  private SQLiteStatement releaseHashStatement;
+  private SQLiteStatement deleteOlderCopiesStatement;
+  private SQLiteStatement insertIfAbsentStatement;
+  private SQLiteStatement deleteIdStatement;
+
+  private HistoryStore(Context context) {
+    helper = new DBHelper(context);
+    helper.setWriteAheadLoggingEnabled(true);
+  }
+
+  static synchronized HistoryStore get(Context context) {
+    if (instance == null) {
+      instance = new HistoryStore(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  HistoryWriter getWriter() {
+    return writer;
+  }
+
+  HistoryRetention getRetention() {
+    return retention;
+  }
+
+  /**
+   * @return the shared database, which callers must not close
+   * @throws android.database.SQLException if it cannot be opened
+   */
+  SQLiteDatabase getDatabase() {
+    SQLiteDatabase db = database;
+    if (db == null) {
+      // Only the first call takes the lock, so reads don't wait for a batch being written
+      synchronized (this) {
+        db = database;
+        if (db == null) {
+          db = helper.getWritableDatabase();
+          database = db;
+        }
+      }
+    }
+    return db;
+  }
+
+  /**
+   * Inserts an item as the newest with its text, with an INSERT OR REPLACE on the unique text hash index.
+   * With {@code replacePrevious} that replaces the previous newest item with the text, and older copies,
+   * e.g. scanned while duplicates were remembered or imported, are deleted first. Otherwise the previous
+   * newest item first gives up the hash and stays.
+   *
+   * @return row ID of the new item, or -1 if it could not be inserted
+   */
+  synchronized long insert(String text, String format, String display, long timestamp,
+                           boolean replacePrevious) {
+    if (upsertStatement == null) {
+      upsertStatement = getDatabase().compileStatement(UPSERT_SQL);
+      releaseHashStatement = getDatabase().compileStatement(RELEASE_HASH_SQL);
+      deleteOlderCopiesStatement = getDatabase().compileStatement(DELETE_OLDER_COPIES_SQL);
+    }
+    long hash = DBHelper.hashText(text);
+    if (replacePrevious) {
+      bindStringOrNull(deleteOlderCopiesStatement, 1, text);
+      deleteOlderCopiesStatement.executeUpdateDelete();
+    } else {
+      releaseHashStatement.bindLong(1, hash);
+      releaseHashStatement.executeUpdateDelete();
+    }
+    bindStringOrNull(upsertStatement, 1, text);
+    bindStringOrNull(upsertStatement, 2, format);
+    bindStringOrNull(upsertStatement, 3, display);
+    upsertStatement.bindLong(4, timestamp);
+    upsertStatement.bindLong(5, hash);
+    return upsertStatement.executeInsert();
+  }
+
+  /**
+   * Inserts an item with details, unless one with the same text and timestamp exists.
+   *
+   * @return {@code true} if it was inserted
+   */
+  synchronized boolean insertIfAbsent(String text, String format, String display, long timestamp,
+                                      String details) {
+    if (insertIfAbsentStatement == null) {
+      insertIfAbsentStatement = getDatabase().compileStatement(INSERT_IF_ABSENT_SQL);
+    }
+    bindStringOrNull(insertIfAbsentStatement, 1, text);
+    bindStringOrNull(insertIfAbsentStatement, 2, format);
+    bindStringOrNull(insertIfAbsentStatement, 3, display);
+    insertIfAbsentStatement.bindLong(4, timestamp);
+    bindStringOrNull(insertIfAbsentStatement, 5, details);
+    insertIfAbsentStatement.bindLong(6, DBHelper.hashText(text));
+    return insertIfAbsentStatement.executeInsert() != -1L;
+  }
+
+  /**
+   * @return number of items deleted
+   */
+  synchronized int deleteById(long id) {
+    if (deleteIdStatement == null) {
+      deleteIdStatement = getDatabase().compileStatement(DELETE_ID_SQL);
+    }
+    deleteIdStatement.bindLong(1, id);
+    return deleteIdStatement.executeUpdateDelete();
+  }
+
+  /**
+   * Appends details to the most recent item with the given text, unless they are already there.
+   */
+  synchronized void addDetails(String text, String details) {
+    SQLiteDatabase db = getDatabase();
+    try (Cursor cursor = db.query(DBHelper.TABLE_NAME,
+                                  ID_DETAIL_COL_PROJECTION,
+                                  DBHelper.TEXT_HASH_COL + "=? AND " + DBHelper.TEXT_COL + "=?",
+                                  new String[] { Long.toString(DBHelper.hashText(text)), text },
+                                  null,
+                                  null,
+                                  null)) {
+      if (!cursor.moveToNext()) {
+        return;
+      }
+      String id = cursor.getString(0);
+      String oldDetails = cursor.getString(1);
+      String newDetails;
+      if (oldDetails == null) {
+        newDetails = details;
+      } else if (oldDetails.contains(details)) {
+        return;
+      } else {
+        newDetails = oldDetails + " : " + details;
+      }
+      ContentValues values = new ContentValues();
+      values.put(DBHelper.DETAILS_COL, newDetails);
+      db.update(DBHelper.TABLE_NAME, values, DBHelper.ID_COL + "=?", new String[] { id });
+    }
+  }
+
+  private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+    if (value == null) {
+      statement.bindNull(index);
+    } else {
+      statement.bindString(index, value);
+    }
+  }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Takes history writes off the caller's thread. Writes are queued and a background thread commits them
+ * in one transaction per batch, once {@link #MAX_BATCH} are waiting or the oldest has waited
+ * {@link #MAX_DELAY_MS}. Writes are applied in the order they were queued, so supplemental details always
+ * find the item they belong to. {@link #flush()} waits until everything queued so far is committed.
+ * After each batch that added items, a {@link HistoryRetention} pass trims the history.
+ * <p>
+ * 历史记录的后台写入队列,按数量或时间攒批后在一个事务里提交;flush() 等待已排队的写入全部落盘.
+ */
+final class HistoryWriter implements Runnable {
+
+  private static final String TAG = HistoryWriter.class.getSimpleName();
+
+  private static final int MAX_BATCH = 100;
+  private static final long MAX_DELAY_MS = 500L;
+  /** Don't hold up the UI thread for longer than this, even if the disk is slow. */
+  private static final long FLUSH_TIMEOUT_MS = 2000L;
+
+  /**
+   * A queued insert of a scan, or an addition to the details of the latest scan of some text.
+   */
+  private static final class PendingWrite {
+
+    final String text;
+    final String format;
+    final String display;
+    final long timestamp;
+    final boolean replacePrevious;
+    final String details;
+
+    PendingWrite(String text, String format, String display, long timestamp, boolean replacePrevious,
+                 String details) {
+      this.text = text;
+      this.format = format;
+      this.display = display;
+      this.timestamp = timestamp;
+      this.replacePrevious = replacePrevious;
+      this.details = details;
+    }
+  }
+
+  /** Queued to ask for a retention pass without writing anything. */
+  private static final PendingWrite TRIM = new PendingWrite(null, null, null, 0L, false, null);
+
+  private final HistoryStore store;
+  private final ArrayDeque<PendingWrite> pending = new ArrayDeque<>();
+  private final List<PendingWrite> batch = new ArrayList<>(MAX_BATCH);
+  private Thread thread;
+  private long oldestQueuedAt;
+  private long queuedCount;
+  private long writtenCount;
+  private boolean flushRequested;
+
+  HistoryWriter(HistoryStore store) {
+    this.store = store;
+  }
+
+  /**
+   * Queues a new scan.
+   *
+   * @param replacePrevious delete earlier scans of the same text first
+   */
+  void insert(String text, String format, String display, long timestamp, boolean replacePrevious) {
+    enqueue(new PendingWrite(text, format, display, timestamp, replacePrevious, null));
+  }
+
+  /**
+   * Queues a retention pass, e.g. after the limits changed.
+   */
+  void trim() {
+    enqueue(TRIM);
+  }
+
+  /**
+   * Queues supplemental details for the most recent scan of the given text.
+   */
+  void addDetails(String text, String details) {
+    enqueue(new PendingWrite(text, null, null, 0L, false, details));
+  }
+
+  private synchronized void enqueue(PendingWrite write) {
+    if (thread == null) {
+      thread = new Thread(this, "HistoryWriter");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    if (pending.isEmpty()) {
+      oldestQueuedAt = SystemClock.uptimeMillis();
+    }
+    pending.add(write);
+    queuedCount++;
+    notifyAll();
+  }
+
+  /**
+   * Blocks until every write queued before this call has been committed, or a timeout passes.
+   */
+  synchronized void flush() {
+    long target = queuedCount;
+    if (writtenCount >= target) {
+      return;
+    }
+    flushRequested = true;
+    notifyAll();
+    long deadline = SystemClock.uptimeMillis() + FLUSH_TIMEOUT_MS;
+    try {
+      while (writtenCount < target) {
+        long left = deadline - SystemClock.uptimeMillis();
+        if (left <= 0L) {
+          Log.w(TAG, "Timed out flushing history; " + (target - writtenCount) + " writes still queued");
+          return;
+        }
+        wait(left);
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        takeBatch();
+        write();
+        synchronized (this) {
+          writtenCount += batch.size();
+          notifyAll();
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException ie) {
+      Log.w(TAG, "History writer interrupted");
+    }
+  }
+
+  private synchronized void takeBatch() throws InterruptedException {
+    while (pending.isEmpty()) {
+      wait();
+    }
+    // 攒够一批或者等够时间再提交,除非有人在等 flush
+    while (pending.size() < MAX_BATCH && !flushRequested) {
+      long left = oldestQueuedAt + MAX_DELAY_MS - SystemClock.uptimeMillis();
+      if (left <= 0L) {
+        break;
+      }
+      wait(left);
+    }
+    while (!pending.isEmpty() && batch.size() < MAX_BATCH) {
+      batch.add(pending.poll());
+    }
+    if (pending.isEmpty()) {
+      flushRequested = false;
+    }
+  }
+
+  private void write() {
+    boolean trim = false;
+    try {
+      SQLiteDatabase db = store.getDatabase();
+      // The store's lock before the write connection, like every other writer
+      synchronized (store) {
+        db.beginTransactionNonExclusive();
+        try {
+          for (PendingWrite write : batch) {
+            if (write == TRIM) {
+              trim = true;
+              continue;
+            }
+            if (write.details != null) {
+              store.addDetails(write.text, write.details);
+              continue;
+            }
+            store.insert(write.text, write.format, write.display, write.timestamp, write.replacePrevious);
+            trim = true;
+          }
+          db.setTransactionSuccessful();
+        } finally {
+          db.endTransaction();
+        }
+      }
+    } catch (SQLException sqle) {
+      // Dropped rather than retried forever
+      Log.w(TAG, "Could not write " + batch.size() + " history items", sqle);
+    }
+    if (trim) {
+      try {
+        SQLiteDatabase db = store.getDatabase();
+        synchronized (store) {
+          store.getRetention().enforce(db);
+        }
+      } catch (SQLException sqle) {
+        Log.w(TAG, "Could not trim history", sqle);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.app.AlertDialog;
+import android.app.ProgressDialog;
+import android.content.DialogInterface;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.widget.Toast;
+import com.google.zxing.client.android.R;
+
+/**
+ * Imports an exported history file in the background, showing how many scans were added so far.
+ * Cancelling the dialog stops the import; what was added until then stays.
+ * <p>
+ * 后台导入历史记录文件,可以取消,已导入的保留.
+ */
+final class ImportHistoryAsyncTask extends AsyncTask<Object,Integer,Integer>
+    implements HistoryManager.Progress {
+
+  private final HistoryActivity activity;
+  private final HistoryManager historyManager;
+  private final Uri uri;
+  private ProgressDialog dialog;
+
+  ImportHistoryAsyncTask(HistoryActivity activity, HistoryManager historyManager, Uri uri) {
+    this.activity = activity;
+    this.historyManager = historyManager;
+    this.uri = uri;
+  }
+
+  @Override
+  protected void onPreExecute() {
+    dialog = new ProgressDialog(activity);
+    dialog.setMessage(activity.getString(R.string.history_importing));
+    dialog.setCancelable(true);
+    dialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+      @Override
+      public void onCancel(DialogInterface d) {
+        cancel(false);
+      }
+    });
+    dialog.show();
+  }
+
+  @Override
+  protected Integer doInBackground(Object... objects) {
+    return historyManager.importHistory(uri, this);
+  }
+
+  @Override
+  public void onProgress(int done, int total) {
+    publishProgress(done);
+  }
+
+  @Override
+  protected void onProgressUpdate(Integer... values) {
+    dialog.setMessage(activity.getString(R.string.history_imported, values[0]));
+  }
+
+  @Override
+  protected void onCancelled(Integer imported) {
+    dialog.dismiss();
+    activity.onHistoryImported();
+  }
+
+  @Override
+  protected void onPostExecute(Integer imported) {
+    dialog.dismiss();
+    if (imported < 0) {
+      AlertDialog.Builder builder = new AlertDialog.Builder(activity);
+      builder.setMessage(R.string.msg_import_failed);
+      builder.setPositiveButton(R.string.button_ok, null);
+      builder.show();
+      return;
+    }
+    Toast.makeText(activity, activity.getString(R.string.history_imported, imported), Toast.LENGTH_SHORT).show();
+    activity.onHistoryImported();
+  }
+
+}
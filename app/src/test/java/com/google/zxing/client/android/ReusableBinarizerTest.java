@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks that {@link ReusableBinarizer} gives exactly what {@link HybridBinarizer} gives, on synthetic frames
+ * below and above the size at which it splits the work into strips. The strip path only runs with more than
+ * one processor; the build passes {@code -XX:ActiveProcessorCount} so that it does on any machine.
+ * <p>
+ * 和 HybridBinarizer 逐位比较,覆盖单线程、条带并行以及同一个 Scratch 跨尺寸复用.
+ */
+public final class ReusableBinarizerTest {
+
+    private static final int PATTERNS = 5;
+
+    @Test
+    public void testSerialMatchesHybridBinarizer() throws NotFoundException {
+        Random random = new Random(0xCAFE);
+        int[][] sizes = { {40, 40}, {41, 57}, {100, 100}, {240, 160}, {333, 211}, {399, 400} };
+        for (int[] size : sizes) {
+            for (int pattern = 0; pattern < PATTERNS; pattern++) {
+                assertSame(frame(random, size[0], size[1], pattern), new ReusableBinarizer.Scratch());
+            }
+        }
+    }
+
+    @Test
+    public void testStripsMatchHybridBinarizer() throws NotFoundException {
+        Random random = new Random(0xBEEF);
+        int[][] sizes = { {400, 400}, {640, 480}, {801, 599}, {1280, 720} };
+        for (int[] size : sizes) {
+            for (int pattern = 0; pattern < PATTERNS; pattern++) {
+                assertSame(frame(random, size[0], size[1], pattern), new ReusableBinarizer.Scratch());
+            }
+        }
+    }
+
+    @Test
+    public void testScratchReusedAcrossSizes() throws NotFoundException {
+        Random random = new Random(0xF00D);
+        ReusableBinarizer.Scratch scratch = new ReusableBinarizer.Scratch();
+        // More sizes than the scratch keeps matrices for, coming back to earlier ones, large and small
+        int[][] sizes = {
+            {640, 480}, {160, 120}, {640, 480}, {333, 211}, {800, 600}, {41, 57}, {1280, 720}, {160, 120},
+            {640, 480}, {399, 400},
+        };
+        for (int round = 0; round < 3; round++) {
+            for (int[] size : sizes) {
+                assertSame(frame(random, size[0], size[1], random.nextInt(PATTERNS)), scratch);
+            }
+        }
+    }
+
+    private static void assertSame(LuminanceSource source, ReusableBinarizer.Scratch scratch)
+            throws NotFoundException {
+        HybridBinarizer expected = new HybridBinarizer(source);
+        ReusableBinarizer actual = new ReusableBinarizer(source, scratch);
+        String where = source.getWidth() + "x" + source.getHeight();
+        BitMatrix expectedMatrix = expected.getBlackMatrix();
+        Assert.assertEquals(where, expectedMatrix, actual.getBlackMatrix());
+        // Asked again, the same matrix comes back
+        Assert.assertEquals(where, expectedMatrix, actual.getBlackMatrix());
+
+        int[] rows = { 0, source.getHeight() / 3, source.getHeight() / 2, source.getHeight() - 1 };
+        for (int y : rows) {
+            BitArray expectedRow = blackRow(expected, y);
+            BitArray actualRow = blackRow(actual, y);
+            if (expectedRow == null || actualRow == null) {
+                Assert.assertSame(where + " row " + y, expectedRow, actualRow);
+            } else {
+                Assert.assertArrayEquals(where + " row " + y, expectedRow.getBitArray(), actualRow.getBitArray());
+            }
+        }
+    }
+
+    /**
+     * @return the row, or {@code null} where the binarizer finds no usable row
+     */
+    private static BitArray blackRow(Binarizer binarizer, int y) {
+        try {
+            return binarizer.getBlackRow(y, null);
+        } catch (NotFoundException nfe) {
+            return null;
+        }
+    }
+
+    /**
+     * A crop out of a larger NV21 frame, so that the source's offsets are exercised too.
+     */
+    private static LuminanceSource frame(Random random, int width, int height, int pattern) {
+        int left = random.nextInt(17);
+        int top = random.nextInt(17);
+        int dataWidth = width + left + random.nextInt(17);
+        int dataHeight = height + top + random.nextInt(17);
+        byte[] yuv = new byte[dataWidth * dataHeight * 3 / 2 + 1];
+        random.nextBytes(yuv);
+        int square = 4 + random.nextInt(20);
+        int base = random.nextInt(256);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value;
+                switch (pattern) {
+                    case 0: // noise
+                        value = random.nextInt(256);
+                        break;
+                    case 1: // flat, i.e. low contrast everywhere
+                        value = base + random.nextInt(5);
+                        break;
+                    case 2: // checkerboard with noise
+                        value = (((x / square) + (y / square)) & 1) == 0 ? 30 + random.nextInt(40) : 190 + random.nextInt(40);
+                        break;
+                    case 3: // gradient
+                        value = (x * 255 / width + y * 255 / height) / 2;
+                        break;
+                    default: // blocks of flat and contrasty areas side by side
+                        value = (x / 32 + y / 32) % 3 == 0 ? base : ((x ^ y) & 8) == 0 ? 20 : 230;
+                        break;
+                }
+                yuv[(top + y) * dataWidth + left + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+        return new PlanarYUVLuminanceSource(yuv, dataWidth, dataHeight, left, top, width, height, false);
+    }
+
+}
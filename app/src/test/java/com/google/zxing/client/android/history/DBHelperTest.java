@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2019 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Upgrades a version 5 history database, the oldest that is migrated rather than recreated, and checks what
+ * the migrations leave behind: every row, the text hash on the newest copy of each text only, a consistent
+ * full-text index, and the indexes the history queries rely on.
+ * <p>
+ * 从第 5 版升级历史记录数据库,检查数据、文本哈希、全文索引以及查询计划.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public final class DBHelperTest {
+
+  /** Distinct texts; each appears {@link #COPIES} times, at shuffled times. */
+  private static final int TEXTS = 50;
+  private static final int COPIES = 3;
+
+  private Context context;
+  private DBHelper helper;
+  private SQLiteDatabase db;
+
+  @Before
+  public void setUp() {
+    context = RuntimeEnvironment.application;
+    createVersion5(context.getDatabasePath(DBHelper.DB_NAME));
+    helper = new DBHelper(context);
+    db = helper.getWritableDatabase();
+  }
+
+  @After
+  public void tearDown() {
+    helper.close();
+    context.deleteDatabase(DBHelper.DB_NAME);
+  }
+
+  @Test
+  public void testRowsSurvive() {
+    Assert.assertEquals(TEXTS * COPIES + 1, count("SELECT COUNT(1) FROM " + DBHelper.TABLE_NAME));
+    try (Cursor cursor = db.query(DBHelper.TABLE_NAME,
+                                  new String[] { DBHelper.TEXT_COL, DBHelper.FORMAT_COL, DBHelper.DISPLAY_COL,
+                                                 DBHelper.TIMESTAMP_COL, DBHelper.DETAILS_COL },
+                                  DBHelper.ID_COL + "=?", new String[] { "1" }, null, null, null)) {
+      Assert.assertTrue(cursor.moveToFirst());
+      Assert.assertEquals(text(0), cursor.getString(0));
+      Assert.assertEquals("QR_CODE", cursor.getString(1));
+      Assert.assertEquals("display 0", cursor.getString(2));
+      Assert.assertEquals(timestamp(0, 0), cursor.getLong(3));
+      Assert.assertEquals("details0", cursor.getString(4));
+    }
+  }
+
+  @Test
+  public void testOnlyNewestCopyIsHashed() {
+    Map<String,Long> newest = new HashMap<>();
+    try (Cursor cursor = db.query(DBHelper.TABLE_NAME,
+                                  new String[] { DBHelper.ID_COL, DBHelper.TEXT_COL },
+                                  null, null, null, null,
+                                  HistoryManager.ORDER_BY)) {
+      while (cursor.moveToNext()) {
+        if (!cursor.isNull(1) && !newest.containsKey(cursor.getString(1))) {
+          newest.put(cursor.getString(1), cursor.getLong(0));
+        }
+      }
+    }
+    Assert.assertEquals(TEXTS, newest.size());
+
+    int hashed = 0;
+    try (Cursor cursor = db.query(DBHelper.TABLE_NAME,
+                                  new String[] { DBHelper.ID_COL, DBHelper.TEXT_COL, DBHelper.TEXT_HASH_COL },
+                                  null, null, null, null, null)) {
+      while (cursor.moveToNext()) {
+        String text = cursor.getString(1);
+        if (text != null && newest.get(text) == cursor.getLong(0)) {
+          Assert.assertFalse(text, cursor.isNull(2));
+          Assert.assertEquals(text, DBHelper.hashText(text), cursor.getLong(2));
+          hashed++;
+        } else {
+          Assert.assertTrue(String.valueOf(text), cursor.isNull(2));
+        }
+      }
+    }
+    Assert.assertEquals(TEXTS, hashed);
+  }
+
+  @Test
+  public void testFullTextIndex() {
+    // Throws if the index and the table disagree
+    db.execSQL("INSERT INTO " + DBHelper.FTS_TABLE_NAME + '(' + DBHelper.FTS_TABLE_NAME +
+               ") VALUES ('integrity-check')");
+    Assert.assertEquals(COPIES, count("SELECT COUNT(1) FROM " + DBHelper.FTS_TABLE_NAME + " WHERE " +
+                                      DBHelper.FTS_TABLE_NAME + " MATCH 'details7'"));
+    Assert.assertEquals(TEXTS * COPIES, count("SELECT COUNT(1) FROM " + DBHelper.FTS_TABLE_NAME + " WHERE " +
+                                              DBHelper.FTS_TABLE_NAME + " MATCH 'display'"));
+
+    // Moving the hash leaves the index alone; changing the text does not
+    db.execSQL("UPDATE " + DBHelper.TABLE_NAME + " SET " + DBHelper.TEXT_HASH_COL + "=NULL");
+    db.execSQL("UPDATE " + DBHelper.TABLE_NAME + " SET " + DBHelper.DISPLAY_COL + "='changed' WHERE " +
+               DBHelper.ID_COL + "=1");
+    db.execSQL("DELETE FROM " + DBHelper.TABLE_NAME + " WHERE " + DBHelper.ID_COL + "=2");
+    db.execSQL("INSERT INTO " + DBHelper.FTS_TABLE_NAME + '(' + DBHelper.FTS_TABLE_NAME +
+               ") VALUES ('integrity-check')");
+    Assert.assertEquals(1, count("SELECT COUNT(1) FROM " + DBHelper.FTS_TABLE_NAME + " WHERE " +
+                                 DBHelper.FTS_TABLE_NAME + " MATCH 'changed'"));
+  }
+
+  @Test
+  public void testNewDatabaseMatchesUpgraded() {
+    helper.close();
+    context.deleteDatabase(DBHelper.DB_NAME);
+    helper = new DBHelper(context);
+    db = helper.getWritableDatabase();
+    Assert.assertEquals(8, db.getVersion());
+    assertPlanUses(HistoryStore.DELETE_OLDER_COPIES_SQL, DBHelper.TEXT_INDEX, "x");
+    assertPlanUses(listSql(null), DBHelper.TIMESTAMP_INDEX);
+  }
+
+  @Test
+  public void testListQueriesUseTimestampIndex() {
+    assertPlanUses(listSql(null), DBHelper.TIMESTAMP_INDEX);
+    assertPlanUses(listSql(HistoryManager.AFTER_SELECTION), DBHelper.TIMESTAMP_INDEX, "5", "5", "10");
+  }
+
+  @Test
+  public void testTrimQueriesUseTimestampIndex() {
+    assertPlanUses(HistoryRetention.DELETE_BEYOND_COUNT_SQL, DBHelper.TIMESTAMP_INDEX, "10", "100");
+    assertPlanUses(HistoryRetention.DELETE_OLDER_THAN_SQL, DBHelper.TIMESTAMP_INDEX, "1000", "10");
+    assertPlanUses(HistoryRetention.DELETE_OLDEST_SQL, DBHelper.TIMESTAMP_INDEX, "10");
+  }
+
+  @Test
+  public void testDuplicateDeleteUsesTextIndex() {
+    assertPlanUses(HistoryStore.DELETE_OLDER_COPIES_SQL, DBHelper.TEXT_INDEX, text(3));
+  }
+
+  /**
+   * Writes a database as version 5 of the app did: the table without indexes, full-text index or text hash.
+   */
+  private static void createVersion5(File file) {
+    file.getParentFile().mkdirs();
+    SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(file, null);
+    try {
+      old.execSQL("CREATE TABLE " + DBHelper.TABLE_NAME + " (" +
+                  DBHelper.ID_COL + " INTEGER PRIMARY KEY, " +
+                  DBHelper.TEXT_COL + " TEXT, " +
+                  DBHelper.FORMAT_COL + " TEXT, " +
+                  DBHelper.DISPLAY_COL + " TEXT, " +
+                  DBHelper.TIMESTAMP_COL + " INTEGER, " +
+                  DBHelper.DETAILS_COL + " TEXT);");
+      ContentValues values = new ContentValues();
+      for (int copy = 0; copy < COPIES; copy++) {
+        for (int i = 0; i < TEXTS; i++) {
+          values.put(DBHelper.TEXT_COL, text(i));
+          values.put(DBHelper.FORMAT_COL, "QR_CODE");
+          values.put(DBHelper.DISPLAY_COL, "display " + i);
+          values.put(DBHelper.TIMESTAMP_COL, timestamp(i, copy));
+          values.put(DBHelper.DETAILS_COL, "details" + i);
+          old.insert(DBHelper.TABLE_NAME, null, values);
+        }
+      }
+      // And one without text
+      values.clear();
+      values.put(DBHelper.FORMAT_COL, "QR_CODE");
+      values.put(DBHelper.TIMESTAMP_COL, 1L);
+      old.insert(DBHelper.TABLE_NAME, null, values);
+      old.setVersion(5);
+    } finally {
+      old.close();
+    }
+  }
+
+  private static String text(int i) {
+    return "http://example.com/" + i;
+  }
+
+  /**
+   * Copies aren't in insertion order: for odd texts the first copy is the newest, and for even texts two
+   * copies share the newest timestamp, so that the ID has to break the tie.
+   */
+  private static long timestamp(int i, int copy) {
+    int[] order = i % 2 == 0 ? new int[] { 1, 0, 1 } : new int[] { 2, 1, 0 };
+    return 1000000L + i * 10L + order[copy];
+  }
+
+  private static String listSql(String selection) {
+    return "SELECT * FROM " + DBHelper.TABLE_NAME + (selection == null ? "" : " WHERE " + selection) +
+           " ORDER BY " + HistoryManager.ORDER_BY + " LIMIT 20";
+  }
+
+  private long count(String sql) {
+    try (Cursor cursor = db.rawQuery(sql, null)) {
+      Assert.assertTrue(cursor.moveToFirst());
+      return cursor.getLong(0);
+    }
+  }
+
+  private void assertPlanUses(String sql, String index, String... args) {
+    StringBuilder plan = new StringBuilder();
+    try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args)) {
+      int detail = cursor.getColumnIndexOrThrow("detail");
+      while (cursor.moveToNext()) {
+        plan.append(cursor.getString(detail)).append('\n');
+      }
+    }
+    Assert.assertTrue(sql + '\n' + plan, plan.toString().contains(index));
+    // The index gives the order; nothing is collected and sorted
+    Assert.assertFalse(sql + '\n' + plan, plan.toString().contains("TEMP B-TREE"));
+  }
+
+}